@@ -16,6 +16,11 @@ public class AllTests extends TestCase {
 	public static Test suite() {
 		TestSuite packageTests = new TestSuite(AllTests.class.getName());
 		packageTests.addTestSuite(MinimumPaymentScheduleCalculatorTest.class);
+		packageTests.addTestSuite(MeteredLoanCalculatorTest.class);
+		packageTests.addTestSuite(CalculatorWarmUpTest.class);
+		packageTests.addTestSuite(AprCalculatorTest.class);
+		packageTests.addTestSuite(PrepaymentSimulatorTest.class);
+		packageTests.addTestSuite(CompressedPaymentScheduleTest.class);
 
 		return packageTests;
 
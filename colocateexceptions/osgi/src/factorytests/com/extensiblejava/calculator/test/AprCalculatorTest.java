@@ -0,0 +1,56 @@
+package com.extensiblejava.calculator.test;
+
+import junit.framework.*;
+import junit.textui.*;
+import java.math.*;
+import java.util.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.impl.*;
+import com.extensiblejava.calculator.*;
+import com.extensiblejava.apr.*;
+
+public class AprCalculatorTest extends TestCase
+{
+	private Loan loan;
+	private AprCalculator aprCalculator;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { AprCalculatorTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		LoanCalculator loanCalculator = new MinimumPaymentScheduleCalculator(new PaymentFactoryImpl());
+		this.loan = loanCalculator.calculateLoan(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		this.aprCalculator = new AprCalculator();
+	}
+
+	public void testAprWithoutFees() {
+		BigDecimal apr = this.aprCalculator.calculateApr(this.loan, new BigDecimal("0"));
+		assertEquals(new BigDecimal("12.00"), apr);
+	}
+
+	public void testAprWithFees() {
+		BigDecimal apr = this.aprCalculator.calculateApr(this.loan, new BigDecimal("300.00"));
+		assertEquals(new BigDecimal("12.89"), apr);
+	}
+
+	public void testPortfolio() {
+		ArrayList loans = new ArrayList();
+		loans.add(this.loan);
+		loans.add(this.loan);
+		List aprs = this.aprCalculator.calculateAprs(loans, new BigDecimal("300.00"));
+		assertEquals(2, aprs.size());
+		assertEquals(this.aprCalculator.calculateApr(this.loan, new BigDecimal("300.00")), aprs.get(0));
+	}
+
+	public void testNothingFinanced() {
+		try {
+			this.aprCalculator.calculateApr(this.loan, new BigDecimal("15000.00"));
+			fail();
+		} catch (LoanException e) {
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.extensiblejava.calculator.test;
+
+import junit.framework.*;
+import junit.textui.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.impl.*;
+import com.extensiblejava.loan.metrics.*;
+import com.extensiblejava.calculator.*;
+import com.extensiblejava.facade.impl.*;
+
+public class CalculatorWarmUpTest extends TestCase
+{
+	private LoanFacadeImpl loanFacade;
+	private CalculatorWarmUp warmUp;
+	private GatedCalculator defaultCalculator;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { CalculatorWarmUpTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		this.defaultCalculator = new GatedCalculator(null);
+		this.loanFacade = new LoanFacadeImpl(this.defaultCalculator);
+		this.warmUp = new CalculatorWarmUp(this.loanFacade);
+		this.warmUp.setCallsPerRound(3);
+		this.warmUp.setMaxRounds(2);
+	}
+
+	public void testWarmedUpCalculatorTakesOverWithoutMetrics() throws Exception {
+		LoanMetrics metrics = new LoanMetrics();
+		GatedCalculator calculator = new GatedCalculator(null);
+		this.warmUp.bind(new MeteredLoanCalculator(calculator, metrics), new HashMap());
+		assertTrue(this.warmUp.awaitWarmUps(1, 5000));
+		assertEquals(6, calculator.warmUpCalls);
+		assertEquals(0, metrics.getCalls());
+
+		assertEquals(new BigDecimal("333.67"), this.loanFacade.getMonthlyPayment(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60));
+		assertEquals(1, calculator.calls);
+		assertEquals(0, this.defaultCalculator.calls);
+		assertEquals(1, metrics.getCalls());
+	}
+
+	public void testUnboundDuringWarmUpIsNotPromoted() throws Exception {
+		CountDownLatch gate = new CountDownLatch(1);
+		GatedCalculator calculator = new GatedCalculator(gate);
+		this.warmUp.bind(calculator, new HashMap());
+		this.warmUp.unbind(calculator, new HashMap());
+		gate.countDown();
+		assertTrue(this.warmUp.awaitWarmUps(1, 5000));
+
+		this.loanFacade.getMonthlyPayment(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		assertEquals(0, calculator.calls);
+		assertEquals(1, this.defaultCalculator.calls);
+	}
+
+	public void testLastBoundWinsWhateverFinishesFirst() throws Exception {
+		CountDownLatch gate = new CountDownLatch(1);
+		GatedCalculator first = new GatedCalculator(gate);
+		GatedCalculator second = new GatedCalculator(null);
+		this.warmUp.bind(first, new HashMap());
+		this.warmUp.bind(second, new HashMap());
+		assertTrue(this.warmUp.awaitWarmUps(1, 5000));
+		gate.countDown();
+		assertTrue(this.warmUp.awaitWarmUps(2, 5000));
+
+		this.loanFacade.getMonthlyPayment(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		assertEquals(0, first.calls);
+		assertEquals(1, second.calls);
+
+		this.warmUp.unbind(second, new HashMap());
+		this.loanFacade.getMonthlyPayment(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		assertEquals(1, this.defaultCalculator.calls);
+	}
+
+	public void testFailedWarmUpKeepsCurrentCalculator() throws Exception {
+		this.warmUp.bind(new LoanCalculator() {
+			public Loan calculateLoan(BigDecimal presentValue, BigDecimal rate, int term) {
+				throw new CalculationException(new IllegalStateException("not ready"));
+			}
+		}, new HashMap());
+		assertTrue(this.warmUp.awaitWarmUps(1, 5000));
+
+		this.loanFacade.getMonthlyPayment(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		assertEquals(1, this.defaultCalculator.calls);
+	}
+
+	//Counts warm-up and live calls apart, and can hold its warm-up until the gate opens.
+	private static class GatedCalculator implements LoanCalculator {
+		private LoanCalculator loanCalculator = new MinimumPaymentScheduleCalculator(new PaymentFactoryImpl());
+		private CountDownLatch gate;
+		private volatile int warmUpCalls;
+		private volatile int calls;
+
+		GatedCalculator(CountDownLatch gate) {
+			this.gate = gate;
+		}
+
+		public Loan calculateLoan(BigDecimal presentValue, BigDecimal rate, int term) {
+			if (WarmUp.isRunning()) {
+				try {
+					if (this.gate != null) {
+						this.gate.await();
+					}
+				} catch (InterruptedException e) {
+					throw new CalculationException(e);
+				}
+				this.warmUpCalls++;
+			} else {
+				this.calls++;
+			}
+			return this.loanCalculator.calculateLoan(presentValue, rate, term);
+		}
+	}
+}
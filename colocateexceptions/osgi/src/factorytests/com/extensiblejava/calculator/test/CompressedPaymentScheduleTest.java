@@ -0,0 +1,65 @@
+package com.extensiblejava.calculator.test;
+
+import junit.framework.*;
+import junit.textui.*;
+import java.math.*;
+import java.util.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.impl.*;
+import com.extensiblejava.calculator.*;
+
+public class CompressedPaymentScheduleTest extends TestCase
+{
+	private PaymentSchedule paymentSchedule;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { CompressedPaymentScheduleTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		LoanCalculator loanCalculator = new MinimumPaymentScheduleCalculator(new PaymentFactoryImpl());
+		Loan loan = loanCalculator.calculateLoan(new BigDecimal("150000.00"), new BigDecimal("12.0"), 360);
+		this.paymentSchedule = loan.calculatePaymentSchedule();
+	}
+
+	private void assertSameSchedule(PaymentSchedule expected, PaymentSchedule actual) {
+		assertEquals(expected.getNumberOfPayments(), actual.getNumberOfPayments());
+		Iterator expectedPayments = expected.getPayments();
+		Iterator actualPayments = actual.getPayments();
+		while (expectedPayments.hasNext()) {
+			Payment expectedPayment = (Payment) expectedPayments.next();
+			Payment actualPayment = (Payment) actualPayments.next();
+			assertEquals(expectedPayment.getPrincipal(), actualPayment.getPrincipal());
+			assertEquals(expectedPayment.getInterest(), actualPayment.getInterest());
+		}
+		assertFalse(actualPayments.hasNext());
+	}
+
+	public void testRoundTrip() {
+		CompressedPaymentSchedule compressed = CompressedPaymentSchedule.compress(this.paymentSchedule);
+		assertSameSchedule(this.paymentSchedule, compressed);
+		assertTrue(compressed.getEncodedSize() < 2 * this.paymentSchedule.getNumberOfPayments().intValue());
+	}
+
+	public void testFromBytes() {
+		CompressedPaymentSchedule compressed = CompressedPaymentSchedule.compress(this.paymentSchedule);
+		CompressedPaymentSchedule restored = new CompressedPaymentSchedule(compressed.toByteArray());
+		assertSameSchedule(this.paymentSchedule, restored);
+
+		Payment payment = new PaymentImpl(new BigDecimal("10.00"), new BigDecimal("0.05"));
+		compressed.addPayment(payment);
+		restored.addPayment(payment);
+		assertSameSchedule(compressed, restored);
+	}
+
+	public void testFractionalCents() {
+		try {
+			new CompressedPaymentSchedule().addPayment(new PaymentImpl(new BigDecimal("10.001"), new BigDecimal("1.00")));
+			fail();
+		} catch (LoanException e) {
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.extensiblejava.calculator.test;
+
+import junit.framework.*;
+import junit.textui.*;
+import java.math.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.impl.*;
+import com.extensiblejava.loan.metrics.*;
+import com.extensiblejava.calculator.*;
+
+public class MeteredLoanCalculatorTest extends TestCase
+{
+	private LoanMetrics metrics;
+	private LoanCalculator loanCalculator;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { MeteredLoanCalculatorTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		this.metrics = new LoanMetrics();
+		this.loanCalculator = new MeteredLoanCalculator(new MinimumPaymentScheduleCalculator(new PaymentFactoryImpl()), this.metrics);
+	}
+
+	public void testCallsAndScheduleSize() {
+		Loan loan = this.loanCalculator.calculateLoan(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		assertTrue(loan.getMonthlyPayment().equals(new BigDecimal("333.67")));
+		assertEquals(1, this.metrics.getCalls());
+		assertEquals(1, this.metrics.getSchedules());
+		assertEquals(60, this.metrics.getMaxScheduleSize());
+		assertTrue(this.metrics.getTermDistribution().startsWith("<=12: 0, <=36: 0, <=60: 1,"));
+	}
+
+	public void testCalculationFailure() {
+		try {
+			this.loanCalculator.calculateLoan(null, new BigDecimal("12.0"), 60);
+			fail();
+		} catch (CalculationException e) {
+			assertEquals(1, this.metrics.getCalculationFailures());
+			assertEquals(1, this.metrics.getCalls());
+			assertEquals(0, this.metrics.getSchedules());
+		}
+	}
+
+	public void testDisabled() {
+		this.metrics.setEnabled(false);
+		this.loanCalculator.calculateLoan(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60);
+		assertEquals(0, this.metrics.getCalls());
+	}
+
+	public void testLatencyPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 1000; i++) {
+			histogram.record(i);
+		}
+		long median = histogram.getValueAtPercentile(50.0);
+		assertTrue(median >= 500 && median <= 500 * 1.07);
+		assertEquals(1000, histogram.getValueAtPercentile(100.0));
+		assertEquals(1000, histogram.getMax());
+	}
+}
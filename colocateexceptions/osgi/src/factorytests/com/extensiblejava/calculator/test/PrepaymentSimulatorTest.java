@@ -0,0 +1,82 @@
+package com.extensiblejava.calculator.test;
+
+import junit.framework.*;
+import junit.textui.*;
+import java.math.*;
+import java.util.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.simulation.*;
+
+public class PrepaymentSimulatorTest extends TestCase
+{
+	private BigDecimal presentValue;
+	private BigDecimal rate;
+	private int term;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { PrepaymentSimulatorTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		this.presentValue = new BigDecimal("15000.00");
+		this.rate = new BigDecimal("12.0");
+		this.term = 60;
+	}
+
+	public void testNoPrepaymentMatchesSchedule() {
+		PrepaymentSimulator simulator = new PrepaymentSimulator(new CprScenarioGenerator(0, 0, 0));
+		simulator.setPaths(100);
+		SimulationResult result = simulator.simulate(this.presentValue, this.rate, this.term);
+		assertEquals(100, result.getPaths());
+		assertEquals(5019.93, result.getMeanInterest(), 1.0);
+		assertEquals(0.0, result.getStandardDeviation(), 0.001);
+		assertEquals(0.0, result.getPrepaymentRate(), 0.0);
+	}
+
+	public void testPrepaymentReducesInterest() {
+		PrepaymentSimulator simulator = new PrepaymentSimulator(new CprScenarioGenerator(0.15, 0.02, 0.5));
+		simulator.setPaths(20000);
+		simulator.setThreads(4);
+		SimulationResult result = simulator.simulate(this.presentValue, this.rate, this.term);
+		assertEquals(20000, result.getPaths());
+		assertTrue(result.getMeanInterest() < 5019.93);
+		assertTrue(result.getPrepaymentRate() > 0);
+		assertTrue(result.getDefaultRate() > 0);
+		assertTrue(result.getPercentile(5) <= result.getPercentile(50));
+		assertTrue(result.getPercentile(50) <= result.getPercentile(95));
+		assertTrue(result.getPercentile(95) <= result.getMaximumInterest());
+	}
+
+	public void testRepeatableForSeed() {
+		PrepaymentSimulator simulator = new PrepaymentSimulator(new CprScenarioGenerator(0.15, 0.02, 0.5));
+		simulator.setPaths(5000);
+		simulator.setThreads(3);
+		simulator.setSeed(7);
+		double first = simulator.simulate(this.presentValue, this.rate, this.term).getMeanInterest();
+		double second = simulator.simulate(this.presentValue, this.rate, this.term).getMeanInterest();
+		assertEquals(first, second, 0.0);
+	}
+
+	public void testFailedPathFailsTheRun() {
+		PrepaymentSimulator simulator = new PrepaymentSimulator(new ScenarioGenerator() {
+			private int generated;
+
+			public synchronized void generate(SplittableRandom random, double[] prepayment, double[] defaults) {
+				if (++this.generated == 500) {
+					throw new IllegalStateException("curve unavailable");
+				}
+			}
+		});
+		simulator.setPaths(2000);
+		simulator.setThreads(4);
+		try {
+			simulator.simulate(this.presentValue, this.rate, this.term);
+			fail("A failed path should fail the simulation");
+		} catch (LoanException e) {
+			assertEquals("curve unavailable", e.getCause().getMessage());
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.extensiblejava.apr;
+
+import java.math.*;
+import java.util.*;
+import com.extensiblejava.loan.*;
+
+/*
+ * Annual percentage rate by the actuarial method: the monthly rate that discounts a schedule's
+ * payments back to the amount financed (principal less fees), times twelve. The payments are
+ * read once into a double[] and the rate is solved with Newton's method, falling back to the
+ * secant method if the derivative is unusable.
+ */
+public class AprCalculator {
+	private double tolerance = 1e-12;
+	private int maxIterations = 100;
+
+	public void setTolerance(double tolerance) { this.tolerance = tolerance; }
+	public void setMaxIterations(int maxIterations) { this.maxIterations = maxIterations; }
+
+	public BigDecimal calculateApr(Loan loan, BigDecimal fees) throws LoanException {
+		return calculateApr(loan.calculatePaymentSchedule(), loan.getCumulativePrincipal().subtract(fees));
+	}
+
+	public BigDecimal calculateApr(PaymentSchedule paymentSchedule, BigDecimal amountFinanced) throws LoanException {
+		double[] payments = new double[paymentSchedule.getNumberOfPayments().intValue()];
+		int count = readPayments(paymentSchedule, payments);
+		return toApr(solveMonthlyRate(payments, count, amountFinanced.doubleValue()));
+	}
+
+	//Portfolio mode. The payment buffer is reused across loans, growing only for longer schedules.
+	public List calculateAprs(List loans, BigDecimal fees) throws LoanException {
+		ArrayList aprs = new ArrayList(loans.size());
+		double[] payments = new double[360];
+		Iterator i = loans.iterator();
+		while (i.hasNext()) {
+			Loan loan = (Loan) i.next();
+			PaymentSchedule paymentSchedule = loan.calculatePaymentSchedule();
+			int numberOfPayments = paymentSchedule.getNumberOfPayments().intValue();
+			if (numberOfPayments > payments.length) {
+				payments = new double[numberOfPayments];
+			}
+			int count = readPayments(paymentSchedule, payments);
+			double amountFinanced = loan.getCumulativePrincipal().doubleValue() - fees.doubleValue();
+			aprs.add(toApr(solveMonthlyRate(payments, count, amountFinanced)));
+		}
+		return aprs;
+	}
+
+	public double solveMonthlyRate(double[] payments, int count, double amountFinanced) throws LoanException {
+		if (count == 0 || amountFinanced <= 0) {
+			throw new LoanException("Cannot calculate APR for " + count + " payments on " + amountFinanced + " financed");
+		}
+		double total = 0;
+		for (int k = 0; k < count; k++) {
+			total += payments[k];
+		}
+		//Flat-rate guess, which is close enough for Newton to converge in a handful of steps.
+		double rate = 2 * (total - amountFinanced) / (amountFinanced * (count + 1));
+		double previousRate = rate * 1.1 + 1e-4;
+		double previousValue = presentValue(payments, count, previousRate) - amountFinanced;
+		for (int iteration = 0; iteration < this.maxIterations; iteration++) {
+			double v = 1 / (1 + rate);
+			double discount = v;
+			double value = -amountFinanced;
+			double derivative = 0;
+			for (int k = 0; k < count; k++) {
+				value += payments[k] * discount;
+				derivative -= (k + 1) * payments[k] * discount * v;
+				discount *= v;
+			}
+			double next;
+			if (derivative != 0 && !Double.isNaN(derivative) && !Double.isInfinite(derivative)) {
+				next = rate - value / derivative;
+			} else {
+				next = rate - value * (rate - previousRate) / (value - previousValue);
+			}
+			if (Double.isNaN(next) || next <= -1) {
+				throw new LoanException("APR did not converge");
+			}
+			if (Math.abs(next - rate) < this.tolerance) {
+				return next;
+			}
+			previousRate = rate;
+			previousValue = value;
+			rate = next;
+		}
+		throw new LoanException("APR did not converge in " + this.maxIterations + " iterations");
+	}
+
+	private double presentValue(double[] payments, int count, double rate) {
+		double v = 1 / (1 + rate);
+		double discount = v;
+		double value = 0;
+		for (int k = 0; k < count; k++) {
+			value += payments[k] * discount;
+			discount *= v;
+		}
+		return value;
+	}
+
+	private int readPayments(PaymentSchedule paymentSchedule, double[] payments) {
+		Iterator i = paymentSchedule.getPayments();
+		int count = 0;
+		while (i.hasNext()) {
+			Payment payment = (Payment) i.next();
+			payments[count++] = payment.getPrincipal().doubleValue() + payment.getInterest().doubleValue();
+		}
+		return count;
+	}
+
+	private BigDecimal toApr(double monthlyRate) {
+		return new BigDecimal(monthlyRate * 1200).setScale(2, BigDecimal.ROUND_HALF_UP);
+	}
+}
@@ -0,0 +1,35 @@
+package com.extensiblejava.calculator;
+
+import java.math.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.metrics.*;
+
+public class MeteredLoanCalculator implements LoanCalculator {
+	private LoanCalculator loanCalculator;
+	private LoanMetrics metrics;
+
+	public MeteredLoanCalculator(LoanCalculator loanCalculator, LoanMetrics metrics) {
+		this.loanCalculator = loanCalculator;
+		this.metrics = metrics;
+	}
+
+	public Loan calculateLoan(BigDecimal presentValue, BigDecimal rate, int term) throws CalculationException {
+		if (!this.metrics.isEnabled() || WarmUp.isRunning()) {
+			return this.loanCalculator.calculateLoan(presentValue, rate, term);
+		}
+		long start = System.nanoTime();
+		try {
+			Loan loan = this.loanCalculator.calculateLoan(presentValue, rate, term);
+			this.metrics.recordScheduleSize(loan.calculatePaymentSchedule().getNumberOfPayments().intValue());
+			return loan;
+		} catch (CalculationException e) {
+			this.metrics.recordCalculationFailure();
+			throw e;
+		} catch (LoanException e) {
+			this.metrics.recordLoanFailure();
+			throw e;
+		} finally {
+			this.metrics.recordCall(term, System.nanoTime() - start);
+		}
+	}
+}
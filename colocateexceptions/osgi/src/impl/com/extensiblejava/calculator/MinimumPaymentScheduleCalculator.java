@@ -2,6 +2,7 @@ package com.extensiblejava.calculator;
 
 import java.math.*;
 import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.metrics.*;
 //import com.extensiblejava.loan.impl.*;
 
 public class MinimumPaymentScheduleCalculator implements LoanCalculator {
@@ -17,9 +18,13 @@ public class MinimumPaymentScheduleCalculator implements LoanCalculator {
 	}
 
 	public Loan calculateLoan(BigDecimal presentValue, BigDecimal rate, int term) throws CalculationException {
-		System.out.println("---** IN JAVA CALCULATOR **---");
+		if (!WarmUp.isRunning()) {
+			System.out.println("---** IN JAVA CALCULATOR **---");
+		}
 		BigDecimal cumulativePrincipal = new BigDecimal("0");
 		BigDecimal cumulativeInterest = new BigDecimal("0");
+		ScheduleGenerationEvent event = new ScheduleGenerationEvent();
+		event.begin();
 		try {
 			PaymentSchedule paymentSchedule = this.paymentFactory.createPaymentSchedule();
 			BigDecimal adjustedRate = rate.divide(new BigDecimal("1200"), 2, BigDecimal.ROUND_HALF_UP);
@@ -47,6 +52,15 @@ public class MinimumPaymentScheduleCalculator implements LoanCalculator {
 			//Payment payment = new PaymentImpl(principal, interest);
 			Payment payment = this.paymentFactory.createPayment(principal, interest);
 			paymentSchedule.addPayment(payment);
+			event.end();
+			if (event.shouldCommit() && !WarmUp.isRunning()) {
+				event.principal = presentValue.doubleValue();
+				event.rate = rate.doubleValue();
+				event.term = term;
+				event.payments = paymentSchedule.getNumberOfPayments().intValue();
+				event.calculator = this.getClass().getName();
+				event.commit();
+			}
 			//return paymentSchedule;
 			return this.paymentFactory.createLoan(paymentSchedule, cumulativeInterest, cumulativePrincipal);
 		} catch (Exception e) {
@@ -0,0 +1,24 @@
+package com.extensiblejava.calculator;
+
+import jdk.jfr.*;
+
+@Name("com.extensiblejava.ScheduleGeneration")
+@Label("Payment Schedule Generation")
+@Category("Loan")
+@StackTrace(false)
+class ScheduleGenerationEvent extends Event {
+	@Label("Principal")
+	double principal;
+
+	@Label("Rate")
+	double rate;
+
+	@Label("Term")
+	int term;
+
+	@Label("Payments")
+	int payments;
+
+	@Label("Calculator")
+	String calculator;
+}
@@ -14,22 +14,28 @@ public class LoanClient {
 	public static void main(String args[]) {
 		LoanClient loanClient = new LoanClient();
 		try {
-			//ApplicationContext appContext = new FileSystemXmlApplicationContext("com/extensiblejava/facade/AppContext.xml");
-			String[] configs = new String[3];
-			configs[0] = "classpath*:META-INF/spring/loanfacade.xml";
-			configs[1] = "classpath*:META-INF/spring/calculator.xml";
-			configs[2] = "classpath*:META-INF/spring/loan.xml";
-				configs[0] = "classpath*:META-INF/spring/loanfacade.xml";
-				configs[1] = "classpath*:META-INF/spring/calculator.xml";
-				configs[2] = "classpath*:META-INF/spring/loan.xml";
-			ApplicationContext appContext = new ClassPathXmlApplicationContext(configs);
-			LoanFacade loanFacade = (LoanFacade) appContext.getBean("loanFacade");
+			LoanFacade loanFacade = null;
+			if (args.length > 0 && args[0].equals("-fast")) {
+				loanFacade = LoanFacadeFactory.createLoanFacade();
+			} else {
+				loanFacade = loadLoanFacade();
+			}
 			loanClient.setLoanFacade(loanFacade);
 			loanClient.run();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-	} 
+	}
+
+	private static LoanFacade loadLoanFacade() {
+		//ApplicationContext appContext = new FileSystemXmlApplicationContext("com/extensiblejava/facade/AppContext.xml");
+		String[] configs = new String[3];
+		configs[0] = "classpath*:META-INF/spring/loanfacade.xml";
+		configs[1] = "classpath*:META-INF/spring/calculator.xml";
+		configs[2] = "classpath*:META-INF/spring/loan.xml";
+		ApplicationContext appContext = new ClassPathXmlApplicationContext(configs);
+		return (LoanFacade) appContext.getBean("loanFacade");
+	}
 
 	public void setLoanFacade(LoanFacade loanFacade) {
 		this.loanFacade = loanFacade;
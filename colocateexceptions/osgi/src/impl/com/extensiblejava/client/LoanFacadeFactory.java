@@ -0,0 +1,28 @@
+package com.extensiblejava.client;
+
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.impl.*;
+import com.extensiblejava.loan.metrics.*;
+import com.extensiblejava.calculator.*;
+import com.extensiblejava.facade.*;
+import com.extensiblejava.facade.impl.*;
+
+/*
+ * Wires the same object graph as loan.xml, calculator.xml and loanfacade.xml without building a
+ * Spring context. Keep the two in step when the XML changes. The metrics beans are created but
+ * not exported over JMX, and there is no calculator warm-up since nothing is bound dynamically
+ * outside of OSGi.
+ */
+public class LoanFacadeFactory {
+
+	public static LoanFacade createLoanFacade() {
+		//loan.xml
+		PaymentFactory paymentFactory = new PaymentFactoryImpl();
+
+		//calculator.xml
+		LoanCalculator loanCalculator = new MeteredLoanCalculator(new MinimumPaymentScheduleCalculator(paymentFactory), new LoanMetrics());
+
+		//loanfacade.xml
+		return new MeteredLoanFacade(new LoanFacadeImpl(loanCalculator), new LoanMetrics());
+	}
+}
@@ -0,0 +1,131 @@
+package com.extensiblejava.facade.impl;
+
+import java.math.*;
+import java.util.*;
+import java.util.logging.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.metrics.*;
+
+/*
+ * Bound as a listener on the LoanCalculator services. When a new calculator bundle is started,
+ * it is driven with synthetic loans on a background thread until the average time per call
+ * settles, and only then handed to the facade. Until that happens the facade keeps routing
+ * to whatever calculator it was using before. A calculator unbound while it warms up is never
+ * handed over, and of several bound together the one bound last wins whatever order their
+ * warm-ups finish in.
+ *
+ * The synthetic rates are kept high enough that every calculator reaches a full schedule. At
+ * 6.5% the Java calculator's rounded monthly payment on the 250000 loan never covers the
+ * interest, so its schedule never ends; that is why the middle rate is 15%.
+ */
+public class CalculatorWarmUp {
+	private static final BigDecimal[] PRESENT_VALUES = { new BigDecimal("15000"), new BigDecimal("250000"), new BigDecimal("4500.50") };
+	private static final BigDecimal[] RATES = { new BigDecimal("12"), new BigDecimal("15"), new BigDecimal("3.25") };
+	private static final int[] TERMS = { 60, 360, 24 };
+	private static final Logger logger = Logger.getLogger(CalculatorWarmUp.class.getName());
+
+	private LoanFacadeImpl loanFacade;
+	private int callsPerRound = 200;
+	private int maxRounds = 50;
+	private int stableRounds = 3;
+	private double tolerance = 0.10;
+	private IdentityHashMap bindings = new IdentityHashMap();
+	private long generation;
+	private long promoted;
+	private int completed;
+
+	public CalculatorWarmUp(LoanFacadeImpl loanFacade) {
+		this.loanFacade = loanFacade;
+	}
+
+	public void setCallsPerRound(int callsPerRound) { this.callsPerRound = callsPerRound; }
+	public void setMaxRounds(int maxRounds) { this.maxRounds = maxRounds; }
+	public void setStableRounds(int stableRounds) { this.stableRounds = stableRounds; }
+	public void setTolerance(double tolerance) { this.tolerance = tolerance; }
+
+	public void bind(final LoanCalculator loanCalculator, Map properties) {
+		final long bound;
+		synchronized (this) {
+			bound = ++this.generation;
+			this.bindings.put(loanCalculator, Long.valueOf(bound));
+		}
+		Thread warmer = new Thread(new Runnable() {
+			public void run() {
+				try {
+					WarmUp.begin();
+					try {
+						warmUp(loanCalculator);
+					} finally {
+						WarmUp.end();
+					}
+					promote(loanCalculator, bound);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Warm-up of " + loanCalculator.getClass().getName() + " failed; it will not be used", e);
+				} finally {
+					finished();
+				}
+			}
+		}, "loan-calculator-warmup");
+		warmer.setDaemon(true);
+		warmer.start();
+	}
+
+	public synchronized void unbind(LoanCalculator loanCalculator, Map properties) {
+		Long bound = (Long) this.bindings.remove(loanCalculator);
+		if (bound != null && bound.longValue() == this.promoted) {
+			this.promoted = 0;
+		}
+		this.loanFacade.releaseLoanCalculator(loanCalculator);
+	}
+
+	//Hands the calculator to the facade if it is still bound and nothing bound after it has been handed over already.
+	private synchronized void promote(LoanCalculator loanCalculator, long bound) {
+		Long current = (Long) this.bindings.get(loanCalculator);
+		if (current == null || current.longValue() != bound || bound < this.promoted) {
+			return;
+		}
+		this.promoted = bound;
+		this.loanFacade.setLoanCalculator(loanCalculator);
+	}
+
+	private synchronized void finished() {
+		this.completed++;
+		notifyAll();
+	}
+
+	//Waits until the given number of warm-ups have finished, or the timeout passes. Returns whether they had.
+	public synchronized boolean awaitWarmUps(int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (this.completed < count) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	//Returns the number of rounds it took for the per-call time to settle.
+	public int warmUp(LoanCalculator loanCalculator) throws CalculationException {
+		long previous = -1;
+		int stable = 0;
+		int round = 0;
+		while (round < this.maxRounds && stable < this.stableRounds) {
+			long start = System.nanoTime();
+			for (int i = 0; i < this.callsPerRound; i++) {
+				int n = i % TERMS.length;
+				loanCalculator.calculateLoan(PRESENT_VALUES[n], RATES[n], TERMS[n]);
+			}
+			long current = (System.nanoTime() - start) / this.callsPerRound;
+			if (previous > 0 && Math.abs(current - previous) <= previous * this.tolerance) {
+				stable++;
+			} else {
+				stable = 0;
+			}
+			previous = current;
+			round++;
+		}
+		return round;
+	}
+}
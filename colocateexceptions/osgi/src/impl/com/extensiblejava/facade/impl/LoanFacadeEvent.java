@@ -0,0 +1,24 @@
+package com.extensiblejava.facade.impl;
+
+import jdk.jfr.*;
+
+@Name("com.extensiblejava.LoanFacadeCall")
+@Label("Loan Facade Call")
+@Category("Loan")
+@StackTrace(false)
+class LoanFacadeEvent extends Event {
+	@Label("Operation")
+	String operation;
+
+	@Label("Principal")
+	double principal;
+
+	@Label("Rate")
+	double rate;
+
+	@Label("Term")
+	int term;
+
+	@Label("Calculator")
+	String calculator;
+}
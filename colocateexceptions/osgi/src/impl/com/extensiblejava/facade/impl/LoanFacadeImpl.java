@@ -5,25 +5,59 @@ import com.extensiblejava.loan.*;
 import com.extensiblejava.facade.*;
 
 public class LoanFacadeImpl implements LoanFacade {
-	private LoanCalculator loanCalculator;
+	private LoanCalculator defaultCalculator;
+	private volatile LoanCalculator loanCalculator;
 	
 	public LoanFacadeImpl(LoanCalculator loanCalculator) {
+		this.defaultCalculator = loanCalculator;
 		this.loanCalculator = loanCalculator;
 	}
 	
+	//Called once a newly bound calculator has been warmed up. Live traffic moves to it from here on.
+	public void setLoanCalculator(LoanCalculator loanCalculator) {
+		this.loanCalculator = loanCalculator;
+	}
+	
+	//If the calculator serving traffic goes away, fall back to the calculator we were wired with.
+	public void releaseLoanCalculator(LoanCalculator loanCalculator) {
+		if (this.loanCalculator == loanCalculator) {
+			this.loanCalculator = this.defaultCalculator;
+		}
+	}
+	
 	public PaymentSchedule calculatePaymentSchedule(BigDecimal presentValue, BigDecimal rate, int term) {
 		//ApplicationContext appContext = new FileSystemXmlApplicationContext("com/extensiblejava/facade/AppContext.xml");
 		//Loan loan = (Loan) appContext.getBean("loan");
-		Loan loan = this.loanCalculator.calculateLoan(presentValue, rate, term);
+		LoanCalculator loanCalculator = this.loanCalculator;
+		LoanFacadeEvent event = new LoanFacadeEvent();
+		event.begin();
+		Loan loan = loanCalculator.calculateLoan(presentValue, rate, term);
 		PaymentSchedule paymentSchedule = loan.calculatePaymentSchedule();
+		commit(event, "calculatePaymentSchedule", loanCalculator, presentValue, rate, term);
 		return paymentSchedule;
 	}
 	
 	public BigDecimal getMonthlyPayment(BigDecimal presentValue, BigDecimal rate, int term) {
 		//ApplicationContext appContext = new FileSystemXmlApplicationContext("com/extensiblejava/facade/AppContext.xml");
 		//Loan loan = (Loan) appContext.getBean("loan");
-		Loan loan = this.loanCalculator.calculateLoan(presentValue, rate, term);
+		LoanCalculator loanCalculator = this.loanCalculator;
+		LoanFacadeEvent event = new LoanFacadeEvent();
+		event.begin();
+		Loan loan = loanCalculator.calculateLoan(presentValue, rate, term);
 		BigDecimal monthlyPayment = loan.getMonthlyPayment();
+		commit(event, "getMonthlyPayment", loanCalculator, presentValue, rate, term);
 		return monthlyPayment;
 	}
-}
\ No newline at end of file
+	
+	private void commit(LoanFacadeEvent event, String operation, LoanCalculator loanCalculator, BigDecimal presentValue, BigDecimal rate, int term) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.principal = presentValue.doubleValue();
+			event.rate = rate.doubleValue();
+			event.term = term;
+			event.calculator = loanCalculator.getClass().getName();
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.extensiblejava.facade.impl;
+
+import java.math.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.metrics.*;
+import com.extensiblejava.facade.*;
+
+public class MeteredLoanFacade implements LoanFacade {
+	private LoanFacade loanFacade;
+	private LoanMetrics metrics;
+
+	public MeteredLoanFacade(LoanFacade loanFacade, LoanMetrics metrics) {
+		this.loanFacade = loanFacade;
+		this.metrics = metrics;
+	}
+
+	public PaymentSchedule calculatePaymentSchedule(BigDecimal presentValue, BigDecimal rate, int term) {
+		if (!this.metrics.isEnabled()) {
+			return this.loanFacade.calculatePaymentSchedule(presentValue, rate, term);
+		}
+		long start = System.nanoTime();
+		try {
+			PaymentSchedule paymentSchedule = this.loanFacade.calculatePaymentSchedule(presentValue, rate, term);
+			this.metrics.recordScheduleSize(paymentSchedule.getNumberOfPayments().intValue());
+			return paymentSchedule;
+		} catch (CalculationException e) {
+			this.metrics.recordCalculationFailure();
+			throw e;
+		} catch (LoanException e) {
+			this.metrics.recordLoanFailure();
+			throw e;
+		} finally {
+			this.metrics.recordCall(term, System.nanoTime() - start);
+		}
+	}
+
+	public BigDecimal getMonthlyPayment(BigDecimal presentValue, BigDecimal rate, int term) {
+		if (!this.metrics.isEnabled()) {
+			return this.loanFacade.getMonthlyPayment(presentValue, rate, term);
+		}
+		long start = System.nanoTime();
+		try {
+			return this.loanFacade.getMonthlyPayment(presentValue, rate, term);
+		} catch (CalculationException e) {
+			this.metrics.recordCalculationFailure();
+			throw e;
+		} catch (LoanException e) {
+			this.metrics.recordLoanFailure();
+			throw e;
+		} finally {
+			this.metrics.recordCall(term, System.nanoTime() - start);
+		}
+	}
+}
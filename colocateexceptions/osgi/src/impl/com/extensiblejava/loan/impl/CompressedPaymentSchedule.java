@@ -0,0 +1,160 @@
+package com.extensiblejava.loan.impl;
+
+import java.math.*;
+import java.util.*;
+import com.extensiblejava.loan.*;
+
+/*
+ * PaymentSchedule for archival. The first payment fixes the constant payment amount in cents.
+ * Each payment after that is stored as the change in the change of its interest cents, zigzag
+ * and varint encoded, with principal rebuilt as payment minus interest. A payment whose total
+ * differs from the constant payment (normally only the last one) sets a flag bit and stores the
+ * difference after it. A typical payment takes one byte. Payments are decoded one at a time as
+ * the schedule is iterated.
+ */
+public class CompressedPaymentSchedule implements PaymentSchedule {
+	private byte[] data = new byte[64];
+	private int size;
+	private int count;
+	private long paymentCents;
+	private long previousInterest;
+	private long previousDelta;
+
+	public CompressedPaymentSchedule() {
+	}
+
+	public CompressedPaymentSchedule(byte[] bytes) {
+		int[] position = { 0 };
+		int payments = (int) readVarLong(bytes, position);
+		long payment = unzigzag(readVarLong(bytes, position));
+		this.data = new byte[Math.max(64, bytes.length - position[0])];
+		this.size = bytes.length - position[0];
+		System.arraycopy(bytes, position[0], this.data, 0, this.size);
+		this.paymentCents = payment;
+		Decoder decoder = new Decoder();
+		for (int i = 0; i < payments; i++) {
+			decoder.next();
+		}
+		this.count = payments;
+		this.previousInterest = decoder.interest;
+		this.previousDelta = decoder.delta;
+	}
+
+	public static CompressedPaymentSchedule compress(PaymentSchedule paymentSchedule) {
+		CompressedPaymentSchedule compressed = new CompressedPaymentSchedule();
+		Iterator payments = paymentSchedule.getPayments();
+		while (payments.hasNext()) {
+			compressed.addPayment((Payment) payments.next());
+		}
+		return compressed;
+	}
+
+	public void addPayment(Payment payment) {
+		long interest = toCents(payment.getInterest());
+		long total = toCents(payment.getPrincipal()) + interest;
+		if (this.count == 0) {
+			this.paymentCents = total;
+		}
+		long delta = interest - this.previousInterest;
+		long deltaOfDelta = delta - this.previousDelta;
+		long adjustment = total - this.paymentCents;
+		writeVarLong(zigzag(deltaOfDelta) << 1 | (adjustment == 0 ? 0 : 1));
+		if (adjustment != 0) {
+			writeVarLong(zigzag(adjustment));
+		}
+		this.previousInterest = interest;
+		this.previousDelta = delta;
+		this.count++;
+	}
+
+	public Iterator getPayments() {
+		return new Iterator() {
+			private Decoder decoder = new Decoder();
+			private int remaining = count;
+
+			public boolean hasNext() {
+				return this.remaining > 0;
+			}
+
+			public Object next() {
+				if (this.remaining == 0) {
+					throw new NoSuchElementException();
+				}
+				this.remaining--;
+				this.decoder.next();
+				return new PaymentImpl(BigDecimal.valueOf(this.decoder.total - this.decoder.interest, 2), BigDecimal.valueOf(this.decoder.interest, 2));
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public Integer getNumberOfPayments() { return Integer.valueOf(this.count); }
+
+	public int getEncodedSize() { return this.size; }
+
+	public byte[] toByteArray() {
+		CompressedPaymentSchedule header = new CompressedPaymentSchedule();
+		header.writeVarLong(this.count);
+		header.writeVarLong(zigzag(this.paymentCents));
+		byte[] bytes = new byte[header.size + this.size];
+		System.arraycopy(header.data, 0, bytes, 0, header.size);
+		System.arraycopy(this.data, 0, bytes, header.size, this.size);
+		return bytes;
+	}
+
+	private class Decoder {
+		private int[] position = { 0 };
+		private long interest;
+		private long delta;
+		private long total;
+
+		void next() {
+			long value = readVarLong(data, this.position);
+			this.delta += unzigzag(value >>> 1);
+			this.interest += this.delta;
+			this.total = paymentCents;
+			if ((value & 1) != 0) {
+				this.total += unzigzag(readVarLong(data, this.position));
+			}
+		}
+	}
+
+	private void writeVarLong(long value) {
+		if (this.size + 10 > this.data.length) {
+			byte[] grown = new byte[this.data.length * 2];
+			System.arraycopy(this.data, 0, grown, 0, this.size);
+			this.data = grown;
+		}
+		while ((value & ~0x7FL) != 0) {
+			this.data[this.size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.data[this.size++] = (byte) value;
+	}
+
+	private static long readVarLong(byte[] bytes, int[] position) {
+		long value = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = bytes[position[0]++];
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+
+	private static long zigzag(long value) { return (value << 1) ^ (value >> 63); }
+	private static long unzigzag(long value) { return (value >>> 1) ^ -(value & 1); }
+
+	private static long toCents(BigDecimal amount) {
+		try {
+			return amount.movePointRight(2).longValueExact();
+		} catch (ArithmeticException e) {
+			throw new LoanException("Only whole cents can be archived: " + amount, e);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.extensiblejava.loan.metrics;
+
+import java.util.concurrent.atomic.*;
+
+/*
+ * Log-linear histogram in the style of HdrHistogram. Each power of two is split into 16 linear
+ * sub-buckets, so any recorded value is reported to within about 6% of its true value using a
+ * fixed array of counters and no allocation on the recording path.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private AtomicLong totalCount = new AtomicLong();
+	private AtomicLong totalValue = new AtomicLong();
+	private AtomicLong maxValue = new AtomicLong();
+
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		this.counts.incrementAndGet(indexOf(value));
+		this.totalCount.incrementAndGet();
+		this.totalValue.addAndGet(value);
+		long max = this.maxValue.get();
+		while (value > max && !this.maxValue.compareAndSet(max, value)) {
+			max = this.maxValue.get();
+		}
+	}
+
+	public long getCount() { return this.totalCount.get(); }
+	public long getMax() { return this.maxValue.get(); }
+
+	public long getMean() {
+		long count = this.totalCount.get();
+		return (count == 0 ? 0 : this.totalValue.get() / count);
+	}
+
+	public long getValueAtPercentile(double percentile) {
+		long count = this.totalCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(count * percentile / 100.0);
+		if (target < 1) {
+			target = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen >= target) {
+				return Math.min(highestValueIn(i), this.maxValue.get());
+			}
+		}
+		return this.maxValue.get();
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.counts.set(i, 0);
+		}
+		this.totalCount.set(0);
+		this.totalValue.set(0);
+		this.maxValue.set(0);
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long highestValueIn(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
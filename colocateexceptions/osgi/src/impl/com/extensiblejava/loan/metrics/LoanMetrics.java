@@ -0,0 +1,67 @@
+package com.extensiblejava.loan.metrics;
+
+import java.util.concurrent.atomic.*;
+
+public class LoanMetrics implements LoanMetricsMBean {
+	private static final int[] TERM_LIMITS = { 12, 36, 60, 120, 240, 360 };
+
+	private volatile boolean enabled = true;
+	private AtomicLong calls = new AtomicLong();
+	private AtomicLong calculationFailures = new AtomicLong();
+	private AtomicLong loanFailures = new AtomicLong();
+	private LatencyHistogram latency = new LatencyHistogram();
+	private LatencyHistogram scheduleSizes = new LatencyHistogram();
+	private AtomicLongArray terms = new AtomicLongArray(TERM_LIMITS.length + 1);
+
+	public boolean isEnabled() { return this.enabled; }
+	public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+	public void recordCall(int term, long elapsedNanos) {
+		this.calls.incrementAndGet();
+		this.latency.record(elapsedNanos / 1000);
+		int i = 0;
+		while (i < TERM_LIMITS.length && term > TERM_LIMITS[i]) {
+			i++;
+		}
+		this.terms.incrementAndGet(i);
+	}
+
+	public void recordScheduleSize(int payments) {
+		this.scheduleSizes.record(payments);
+	}
+
+	public void recordCalculationFailure() { this.calculationFailures.incrementAndGet(); }
+	public void recordLoanFailure() { this.loanFailures.incrementAndGet(); }
+
+	public long getCalls() { return this.calls.get(); }
+	public long getCalculationFailures() { return this.calculationFailures.get(); }
+	public long getLoanFailures() { return this.loanFailures.get(); }
+	public long getMeanLatencyMicros() { return this.latency.getMean(); }
+	public long getMedianLatencyMicros() { return this.latency.getValueAtPercentile(50.0); }
+	public long get99thPercentileLatencyMicros() { return this.latency.getValueAtPercentile(99.0); }
+	public long get999thPercentileLatencyMicros() { return this.latency.getValueAtPercentile(99.9); }
+	public long getMaxLatencyMicros() { return this.latency.getMax(); }
+	public long getSchedules() { return this.scheduleSizes.getCount(); }
+	public long getMeanScheduleSize() { return this.scheduleSizes.getMean(); }
+	public long getMaxScheduleSize() { return this.scheduleSizes.getMax(); }
+
+	public String getTermDistribution() {
+		StringBuffer distribution = new StringBuffer();
+		for (int i = 0; i < TERM_LIMITS.length; i++) {
+			distribution.append("<=").append(TERM_LIMITS[i]).append(": ").append(this.terms.get(i)).append(", ");
+		}
+		distribution.append(">").append(TERM_LIMITS[TERM_LIMITS.length - 1]).append(": ").append(this.terms.get(TERM_LIMITS.length));
+		return distribution.toString();
+	}
+
+	public void reset() {
+		this.calls.set(0);
+		this.calculationFailures.set(0);
+		this.loanFailures.set(0);
+		this.latency.reset();
+		this.scheduleSizes.reset();
+		for (int i = 0; i < this.terms.length(); i++) {
+			this.terms.set(i, 0);
+		}
+	}
+}
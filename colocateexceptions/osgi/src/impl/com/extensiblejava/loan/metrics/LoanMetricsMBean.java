@@ -0,0 +1,19 @@
+package com.extensiblejava.loan.metrics;
+
+public interface LoanMetricsMBean {
+	public boolean isEnabled();
+	public void setEnabled(boolean enabled);
+	public long getCalls();
+	public long getCalculationFailures();
+	public long getLoanFailures();
+	public long getMeanLatencyMicros();
+	public long getMedianLatencyMicros();
+	public long get99thPercentileLatencyMicros();
+	public long get999thPercentileLatencyMicros();
+	public long getMaxLatencyMicros();
+	public long getSchedules();
+	public long getMeanScheduleSize();
+	public long getMaxScheduleSize();
+	public String getTermDistribution();
+	public void reset();
+}
@@ -0,0 +1,21 @@
+package com.extensiblejava.loan.metrics;
+
+/*
+ * Marks the calls a warm-up makes on the current thread, so calculators leave them out of
+ * what they measure and report.
+ */
+public class WarmUp {
+	private static final ThreadLocal running = new ThreadLocal();
+
+	public static boolean isRunning() {
+		return running.get() != null;
+	}
+
+	public static void begin() {
+		running.set(Boolean.TRUE);
+	}
+
+	public static void end() {
+		running.remove();
+	}
+}
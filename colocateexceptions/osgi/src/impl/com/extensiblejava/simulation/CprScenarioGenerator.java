@@ -0,0 +1,39 @@
+package com.extensiblejava.simulation;
+
+import java.util.*;
+
+/*
+ * Constant annual prepayment (CPR) and default (CDR) rates converted to monthly probabilities.
+ * Each path scales both curves by its own lognormal shock, so volatility 0 gives the same
+ * curve on every path.
+ */
+public class CprScenarioGenerator implements ScenarioGenerator {
+	private double monthlyPrepayment;
+	private double monthlyDefault;
+	private double volatility;
+
+	public CprScenarioGenerator(double cpr, double cdr, double volatility) {
+		this.monthlyPrepayment = 1 - Math.pow(1 - cpr, 1.0 / 12);
+		this.monthlyDefault = 1 - Math.pow(1 - cdr, 1.0 / 12);
+		this.volatility = volatility;
+	}
+
+	public void generate(SplittableRandom random, double[] prepayment, double[] defaults) {
+		double prepaymentShock = shock(random);
+		double defaultShock = shock(random);
+		double p = Math.min(1, this.monthlyPrepayment * prepaymentShock);
+		double d = Math.min(1, this.monthlyDefault * defaultShock);
+		Arrays.fill(prepayment, p);
+		Arrays.fill(defaults, d);
+	}
+
+	private double shock(SplittableRandom random) {
+		if (this.volatility == 0) {
+			return 1;
+		}
+		double u1 = 1 - random.nextDouble();
+		double u2 = random.nextDouble();
+		double normal = Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2);
+		return Math.exp(this.volatility * normal - this.volatility * this.volatility / 2);
+	}
+}
@@ -0,0 +1,127 @@
+package com.extensiblejava.simulation;
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import com.extensiblejava.loan.*;
+
+/*
+ * Runs loan amortization paths under stochastic prepayment and default. Each path works like
+ * MinimumPaymentScheduleCalculator, but in doubles and without building a schedule. Paths are
+ * split across worker threads, and each worker draws from its own split of one SplittableRandom,
+ * so results are repeatable for a given seed and thread count. If any path fails, the other
+ * workers stop and the simulation throws the first failure.
+ */
+public class PrepaymentSimulator {
+	private ScenarioGenerator scenarioGenerator;
+	private int paths = 10000;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private long seed = 42;
+	private int bins = 1000;
+
+	public PrepaymentSimulator(ScenarioGenerator scenarioGenerator) {
+		this.scenarioGenerator = scenarioGenerator;
+	}
+
+	public void setPaths(int paths) { this.paths = paths; }
+	public void setThreads(int threads) { this.threads = threads; }
+	public void setSeed(long seed) { this.seed = seed; }
+	public void setBins(int bins) { this.bins = bins; }
+
+	public SimulationResult simulate(BigDecimal presentValue, BigDecimal rate, int term) throws LoanException {
+		if (term <= 0 || presentValue.signum() <= 0) {
+			throw new LoanException("Cannot simulate a loan of " + presentValue + " over " + term + " months");
+		}
+		final double principal = presentValue.doubleValue();
+		final double monthlyRate = rate.doubleValue() / 1200;
+		final double payment = monthlyPayment(principal, monthlyRate, term);
+		final int months = term;
+		double maxInterest = runPath(principal, monthlyRate, payment, months, new double[months], new double[months], null, null);
+
+		int workers = Math.max(1, Math.min(this.threads, this.paths));
+		final SimulationResult[] results = new SimulationResult[workers];
+		final AtomicReference failure = new AtomicReference();
+		Thread[] threads = new Thread[workers];
+		SplittableRandom root = new SplittableRandom(this.seed);
+		for (int w = 0; w < workers; w++) {
+			final int count = this.paths / workers + (w < this.paths % workers ? 1 : 0);
+			final SplittableRandom random = root.split();
+			final SimulationResult result = new SimulationResult(maxInterest, this.bins);
+			results[w] = result;
+			threads[w] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						double[] prepayment = new double[months];
+						double[] defaults = new double[months];
+						for (int i = 0; i < count && failure.get() == null; i++) {
+							scenarioGenerator.generate(random, prepayment, defaults);
+							runPath(principal, monthlyRate, payment, months, prepayment, defaults, random, result);
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			}, "prepayment-simulation-" + w);
+			threads[w].start();
+		}
+
+		try {
+			for (int w = 0; w < workers; w++) {
+				threads[w].join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LoanException("Simulation interrupted", e);
+		}
+		Throwable failed = (Throwable) failure.get();
+		if (failed instanceof Error) {
+			throw (Error) failed;
+		}
+		if (failed != null) {
+			throw new LoanException("Simulation of " + presentValue + " over " + term + " months failed", failed);
+		}
+
+		SimulationResult total = new SimulationResult(maxInterest, this.bins);
+		for (int w = 0; w < workers; w++) {
+			total.merge(results[w]);
+		}
+		return total;
+	}
+
+	//Returns the interest collected on one path, recording it when a result is given.
+	private double runPath(double principal, double monthlyRate, double payment, int months, double[] prepayment,
+							double[] defaults, SplittableRandom random, SimulationResult result) {
+		double balance = principal;
+		double interestIncome = 0;
+		boolean prepaid = false;
+		boolean defaulted = false;
+		for (int month = 0; month < months && balance > 0.005; month++) {
+			if (random != null) {
+				double u = random.nextDouble();
+				if (u < defaults[month]) {
+					defaulted = true;
+					break;
+				}
+				if (u < defaults[month] + prepayment[month]) {
+					prepaid = true;
+					break;
+				}
+			}
+			double interest = Math.round(balance * monthlyRate * 100) / 100.0;
+			interestIncome += interest;
+			balance -= Math.min(balance, payment - interest);
+		}
+		if (result != null) {
+			result.record(interestIncome, prepaid, defaulted);
+		}
+		return interestIncome;
+	}
+
+	private double monthlyPayment(double principal, double monthlyRate, int term) {
+		if (monthlyRate == 0) {
+			return Math.ceil(principal / term * 100) / 100.0;
+		}
+		double powRate = Math.pow(1 + monthlyRate, term);
+		return Math.ceil(principal * powRate * monthlyRate / (powRate - 1) * 100) / 100.0;
+	}
+}
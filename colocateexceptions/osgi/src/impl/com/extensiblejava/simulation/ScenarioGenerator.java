@@ -0,0 +1,8 @@
+package com.extensiblejava.simulation;
+
+import java.util.*;
+
+public interface ScenarioGenerator {
+	//Fills in the monthly probability of full prepayment and of default for one path.
+	public void generate(SplittableRandom random, double[] prepayment, double[] defaults);
+}
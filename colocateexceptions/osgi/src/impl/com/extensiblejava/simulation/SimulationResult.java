@@ -0,0 +1,94 @@
+package com.extensiblejava.simulation;
+
+import java.math.*;
+
+/*
+ * Streaming aggregate of interest income over many paths. Nothing is kept per path: income is
+ * counted into fixed-width bins between zero and the scheduled (no prepayment, no default)
+ * interest, which bounds every path, so percentiles are accurate to one bin width.
+ */
+public class SimulationResult {
+	private double maxInterest;
+	private long[] bins;
+	private long paths;
+	private long prepaid;
+	private long defaulted;
+	private double sum;
+	private double sumOfSquares;
+	private double lowest = Double.MAX_VALUE;
+	private double highest;
+
+	SimulationResult(double maxInterest, int binCount) {
+		this.maxInterest = maxInterest;
+		this.bins = new long[binCount];
+	}
+
+	void record(double interest, boolean wasPrepaid, boolean wasDefaulted) {
+		int bin = (this.maxInterest <= 0 ? 0 : (int) (interest / this.maxInterest * this.bins.length));
+		this.bins[Math.max(0, Math.min(this.bins.length - 1, bin))]++;
+		this.paths++;
+		if (wasPrepaid) {
+			this.prepaid++;
+		}
+		if (wasDefaulted) {
+			this.defaulted++;
+		}
+		this.sum += interest;
+		this.sumOfSquares += interest * interest;
+		this.lowest = Math.min(this.lowest, interest);
+		this.highest = Math.max(this.highest, interest);
+	}
+
+	void merge(SimulationResult other) {
+		for (int i = 0; i < this.bins.length; i++) {
+			this.bins[i] += other.bins[i];
+		}
+		this.paths += other.paths;
+		this.prepaid += other.prepaid;
+		this.defaulted += other.defaulted;
+		this.sum += other.sum;
+		this.sumOfSquares += other.sumOfSquares;
+		this.lowest = Math.min(this.lowest, other.lowest);
+		this.highest = Math.max(this.highest, other.highest);
+	}
+
+	public long getPaths() { return this.paths; }
+	public double getPrepaymentRate() { return (this.paths == 0 ? 0 : (double) this.prepaid / this.paths); }
+	public double getDefaultRate() { return (this.paths == 0 ? 0 : (double) this.defaulted / this.paths); }
+	public double getMinimumInterest() { return (this.paths == 0 ? 0 : this.lowest); }
+	public double getMaximumInterest() { return this.highest; }
+
+	public double getMeanInterest() {
+		return (this.paths == 0 ? 0 : this.sum / this.paths);
+	}
+
+	public double getStandardDeviation() {
+		if (this.paths < 2) {
+			return 0;
+		}
+		double mean = getMeanInterest();
+		double variance = (this.sumOfSquares - this.paths * mean * mean) / (this.paths - 1);
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	//Upper edge of the bin holding the given percentile, clamped to the observed range.
+	public double getPercentile(double percentile) {
+		if (this.paths == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(this.paths * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < this.bins.length; i++) {
+			seen += this.bins[i];
+			if (seen >= target) {
+				double edge = this.maxInterest * (i + 1) / this.bins.length;
+				return Math.max(this.lowest, Math.min(this.highest, edge));
+			}
+		}
+		return this.highest;
+	}
+
+	public BigDecimal getExpectedInterest() {
+		return new BigDecimal(getMeanInterest()).setScale(2, BigDecimal.ROUND_HALF_UP);
+	}
+}
@@ -0,0 +1,20 @@
+echo
+echo
+echo " ----- RUN FROM THE BIN DIRECTORY AFTER COMPILATION ----- "
+echo " ----- Compares startup of the Spring XML wiring with the -fast wiring ----- "
+echo
+echo
+RUNS=${1:-5}
+CP=./:./loanfacade-1.0.jar:./client-1.0.jar:./loan-intrfc-1.0.jar:./loan-impl-1.0.jar:./calc-impl-1.0.jar:../lib/org.springframework.beans-3.0.0.RELEASE.jar:../lib/org.springframework.context-3.0.0.RELEASE.jar:../lib/org.springframework.core-3.0.0.RELEASE.jar:../lib/org.springframework.asm-3.0.0.RELEASE.jar:../lib/org.springframework.aop-3.0.0.RELEASE.jar:../lib/org.springframework.expression-3.0.0.RELEASE.jar:../lib/log4j-1.2.13.jar:../lib/commons-collections.jar:../lib/commons-logging.jar:xml-apis.jar
+for MODE in xml -fast; do
+	TOTAL=0
+	i=0
+	while [ $i -lt $RUNS ]; do
+		START=$(date +%s%N)
+		printf '15000\n12\n60\np\n' | java -cp $CP com.extensiblejava.client.LoanClient $MODE > /dev/null 2>&1
+		END=$(date +%s%N)
+		TOTAL=$((TOTAL + (END - START) / 1000000))
+		i=$((i + 1))
+	done
+	echo "$MODE: $((TOTAL / RUNS)) ms per invocation over $RUNS runs"
+done
@@ -0,0 +1,124 @@
+package com.extensiblejava.applicant.test;
+
+import junit.framework.*;
+import junit.textui.*;
+import java.math.*;
+import java.util.*;
+import com.extensiblejava.loan.*;
+import com.extensiblejava.loan.impl.*;
+import com.extensiblejava.calculator.*;
+import com.extensiblejava.applicant.*;
+
+public class AffordabilityScreeningTest extends TestCase
+{
+	private List accepted;
+	private List rejected;
+	private ScreeningListener listener;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { AffordabilityScreeningTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		this.accepted = Collections.synchronizedList(new ArrayList());
+		this.rejected = Collections.synchronizedList(new ArrayList());
+		this.listener = new ScreeningListener() {
+			public void accepted(Applicant applicant, PaymentSchedule paymentSchedule) {
+				accepted.add(paymentSchedule.getNumberOfPayments());
+			}
+			public void rejected(Applicant applicant, LoanException reason) {
+				rejected.add(applicant);
+			}
+		};
+	}
+
+	private Applicant applicant(String income, String debt) {
+		Loan loan = new LoanImpl(new MinimumPaymentScheduleCalculator(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60));
+		return new Applicant(loan, new BigDecimal(income), new BigDecimal(debt));
+	}
+
+	public void testMonthlyPaymentWithoutSchedule() {
+		Loan loan = new LoanImpl(new MinimumPaymentScheduleCalculator(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60));
+		assertEquals(new BigDecimal("333.67"), loan.getMonthlyPayment());
+		assertEquals(new BigDecimal("333.67"), loan.getMonthlyPayment());
+		loan.calculatePaymentSchedule();
+		assertEquals(new BigDecimal("333.67"), loan.getMonthlyPayment());
+	}
+
+	public void testTotalsWithoutSchedule() {
+		Loan loan = new LoanImpl(new MinimumPaymentScheduleCalculator(new BigDecimal("15000.00"), new BigDecimal("12.0"), 60));
+		assertEquals(new BigDecimal("333.67"), loan.getMonthlyPayment());
+		assertTrue(loan.getCumulativeInterest().signum() > 0);
+		assertEquals(new BigDecimal("15000.00"), loan.getCumulativePrincipal());
+	}
+
+	public void testCanAfford() {
+		assertTrue(applicant("1000.00", "0").canAfford(new BigDecimal("0.36")));
+		assertFalse(applicant("1000.00", "100.00").canAfford(new BigDecimal("0.36")));
+	}
+
+	public void testBatch() {
+		ArrayList applicants = new ArrayList();
+		for (int i = 0; i < 1000; i++) {
+			applicants.add(applicant(i % 2 == 0 ? "5000.00" : "500.00", "250.00"));
+		}
+		AffordabilityScreening screening = new AffordabilityScreening(new BigDecimal("0.36"), 4);
+		screening.screen(applicants.iterator(), this.listener);
+		assertEquals(500, this.accepted.size());
+		assertEquals(60, ((Integer) this.accepted.get(0)).intValue());
+		assertEquals(500, this.rejected.size());
+	}
+
+	public void testDesiredPaymentTooLow() {
+		Loan loan = new LoanImpl(new DesiredPaymentScheduleCalculator(new BigDecimal("100.00"), new BigDecimal("15000.00"), new BigDecimal("12.0"), 60));
+		new AffordabilityScreening(new BigDecimal("0.36"), 1).screen(new Applicant(loan, new BigDecimal("5000.00"), null), this.listener);
+		assertEquals(1, this.rejected.size());
+	}
+
+	public void testCalculationFailureRejectsOnlyThatApplicant() {
+		ArrayList applicants = new ArrayList();
+		applicants.add(new Applicant(new LoanImpl(new MinimumPaymentScheduleCalculator(new BigDecimal("15000.00"), new BigDecimal("6.5"), 60)),
+				new BigDecimal("5000.00"), null));
+		applicants.add(applicant("5000.00", "0"));
+		final List reasons = Collections.synchronizedList(new ArrayList());
+		new AffordabilityScreening(new BigDecimal("0.36"), 1).screen(applicants.iterator(), new ScreeningListener() {
+			public void accepted(Applicant applicant, PaymentSchedule paymentSchedule) {
+				accepted.add(paymentSchedule.getNumberOfPayments());
+			}
+			public void rejected(Applicant applicant, LoanException reason) {
+				reasons.add(reason);
+			}
+		});
+		assertEquals(1, this.accepted.size());
+		assertEquals(1, reasons.size());
+		assertTrue(((LoanException) reasons.get(0)).getCause() instanceof ArithmeticException);
+	}
+
+	public void testListenerFailureDoesNotStopTheBatch() {
+		ArrayList applicants = new ArrayList();
+		for (int i = 0; i < 10; i++) {
+			applicants.add(applicant("5000.00", "0"));
+		}
+		try {
+			new AffordabilityScreening(new BigDecimal("0.36"), 2).screen(applicants.iterator(), new ScreeningListener() {
+				public void accepted(Applicant applicant, PaymentSchedule paymentSchedule) {
+					if (accepted.size() % 3 == 0) {
+						accepted.add(null);
+						throw new IllegalStateException("listener down");
+					}
+					accepted.add(paymentSchedule.getNumberOfPayments());
+				}
+				public void rejected(Applicant applicant, LoanException reason) {
+					rejected.add(applicant);
+				}
+			});
+			fail("The listener failure should be reported");
+		} catch (LoanException e) {
+			assertEquals("listener down", e.getCause().getMessage());
+		}
+		assertEquals(10, this.accepted.size());
+	}
+}
\ No newline at end of file
@@ -16,6 +16,7 @@ public class AllTests extends TestCase {
 	public static Test suite() {
 		TestSuite packageTests = new TestSuite(AllTests.class.getName());
 		packageTests.addTestSuite(ApplicantTest.class);
+		packageTests.addTestSuite(AffordabilityScreeningTest.class);
 
 		return packageTests;
 
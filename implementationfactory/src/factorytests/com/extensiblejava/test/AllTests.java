@@ -17,6 +17,7 @@ public class AllTests extends TestCase {
 	public static Test suite() {
 		TestSuite packageTests = new TestSuite(AllTests.class.getName());
 		packageTests.addTestSuite(com.extensiblejava.applicant.test.ApplicantTest.class);
+		packageTests.addTestSuite(com.extensiblejava.applicant.test.AffordabilityScreeningTest.class);
 		packageTests.addTestSuite(com.extensiblejava.calculator.test.DesiredPaymentScheduleCalculatorTest.class);
 		packageTests.addTestSuite(com.extensiblejava.calculator.test.MinimumPaymentScheduleCalculatorTest.class);
 
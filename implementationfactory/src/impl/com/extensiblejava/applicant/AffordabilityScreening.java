@@ -0,0 +1,81 @@
+package com.extensiblejava.applicant;
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import com.extensiblejava.loan.*;
+
+/*
+ * Screens a batch of applicants on a pool of worker threads. Applicants are pulled from the
+ * iterator as workers free up and each result goes to the listener as soon as it is known, so
+ * neither the batch nor the results are held in memory. Payment schedules are only calculated
+ * for the applicants that are accepted. An applicant whose loan cannot be calculated is
+ * rejected with the reason; if the listener itself fails, the workers carry on and the first
+ * such failure is thrown once the batch is done.
+ */
+public class AffordabilityScreening {
+	private BigDecimal maximumDebtToIncome;
+	private int threads;
+
+	public AffordabilityScreening(BigDecimal maximumDebtToIncome, int threads) {
+		this.maximumDebtToIncome = maximumDebtToIncome;
+		this.threads = threads;
+	}
+
+	public void screen(final Iterator applicants, final ScreeningListener listener) throws LoanException {
+		final AtomicReference failure = new AtomicReference();
+		Thread[] workers = new Thread[this.threads];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					Applicant applicant = next(applicants);
+					while (applicant != null) {
+						try {
+							screen(applicant, listener);
+						} catch (RuntimeException e) {
+							failure.compareAndSet(null, e);
+						}
+						applicant = next(applicants);
+					}
+				}
+			}, "affordability-screening-" + i);
+			workers[i].start();
+		}
+		try {
+			for (int i = 0; i < workers.length; i++) {
+				workers[i].join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new LoanException("Screening interrupted", e);
+		}
+		if (failure.get() != null) {
+			throw new LoanException("Screening listener failed", (Throwable) failure.get());
+		}
+	}
+
+	public void screen(Applicant applicant, ScreeningListener listener) {
+		PaymentSchedule paymentSchedule = null;
+		LoanException reason = null;
+		try {
+			if (applicant.canAfford(this.maximumDebtToIncome)) {
+				paymentSchedule = applicant.obtainLoanInformation().calculatePaymentSchedule();
+			}
+		} catch (LoanException e) {
+			reason = e;
+		} catch (RuntimeException e) {
+			reason = new LoanException("Unable to calculate the loan", e);
+		}
+		if (paymentSchedule != null) {
+			listener.accepted(applicant, paymentSchedule);
+		} else {
+			listener.rejected(applicant, reason);
+		}
+	}
+
+	private Applicant next(Iterator applicants) {
+		synchronized (applicants) {
+			return (applicants.hasNext() ? (Applicant) applicants.next() : null);
+		}
+	}
+}
@@ -1,18 +1,40 @@
 package com.extensiblejava.applicant;
 
+import java.math.*;
 import com.extensiblejava.loan.*;
 
 public class Applicant {
 	Loan loan;
-	PaymentSchedule paymentSchedule;
+	BigDecimal monthlyIncome;
+	BigDecimal monthlyDebt;
 	
 	public Applicant (Loan loan) {
+		this(loan, null, null);
+	}
+	
+	public Applicant (Loan loan, BigDecimal monthlyIncome, BigDecimal monthlyDebt) {
 		this.loan = loan;
-		this.paymentSchedule = this.loan.calculatePaymentSchedule();
+		this.monthlyIncome = monthlyIncome;
+		this.monthlyDebt = monthlyDebt;
 	}
 	
 	public Loan obtainLoanInformation () {
 		return loan;
 		//determine if applicant can afford the payments by running a credit check.
 	}
-}
\ No newline at end of file
+	
+	//Only the monthly payment is needed here, so no payment schedule is calculated.
+	public boolean canAfford(BigDecimal maximumDebtToIncome) throws LoanException {
+		if (this.monthlyIncome == null || this.monthlyIncome.signum() <= 0) {
+			return false;
+		}
+		BigDecimal debt = this.loan.getMonthlyPayment();
+		if (this.monthlyDebt != null) {
+			debt = debt.add(this.monthlyDebt);
+		}
+		return debt.compareTo(this.monthlyIncome.multiply(maximumDebtToIncome)) <= 0;
+	}
+	
+	public BigDecimal getMonthlyIncome() { return this.monthlyIncome; }
+	public BigDecimal getMonthlyDebt() { return this.monthlyDebt; }
+}
@@ -0,0 +1,9 @@
+package com.extensiblejava.applicant;
+
+import com.extensiblejava.loan.*;
+
+//Called from the screening worker threads, so implementations must be thread safe.
+public interface ScreeningListener {
+	public void accepted(Applicant applicant, PaymentSchedule paymentSchedule);
+	public void rejected(Applicant applicant, LoanException reason);
+}
@@ -50,6 +50,21 @@ public class DesiredPaymentScheduleCalculator implements LoanCalculator {
 		return paymentSchedule;
 	}
 
+	public BigDecimal calculateMonthlyPayment() {
+		MonthlyPaymentCalculator paymentCalculator = new MonthlyPaymentCalculator();
+		BigDecimal monthlyPayment = paymentCalculator.calculatePayment(this.presentValue, this.rate, this.term);
+		if (this.desiredPayment.doubleValue() < monthlyPayment.doubleValue()) {
+			throw new LoanException("The desired payment is less than the minimum monthly allowed of " + monthlyPayment.doubleValue() +
+					" for the loan term of " + this.term + " at a rate of " + this.rate.toString());
+		}
+		if (this.presentValue.doubleValue() > this.desiredPayment.doubleValue()) {
+			return this.desiredPayment;
+		}
+		BigDecimal adjustedRate = rate.divide(new BigDecimal("1200"), 2, BigDecimal.ROUND_UNNECESSARY);
+		BigDecimal interest = this.presentValue.multiply(adjustedRate).setScale(2, BigDecimal.ROUND_HALF_UP);
+		return this.presentValue.setScale(2, BigDecimal.ROUND_HALF_UP).add(interest);
+	}
+
 	public BigDecimal getCumulativeInterest() { return this.cumulativeInterest; }
 	public BigDecimal getCumulativePrincipal() { return this.cumulativePrincipal; }
 }
\ No newline at end of file
@@ -45,6 +45,18 @@ public class MinimumPaymentScheduleCalculator implements LoanCalculator {
 		return paymentSchedule;
 	}
 
+	public BigDecimal calculateMonthlyPayment() {
+		MonthlyPaymentCalculator paymentCalculator = new MonthlyPaymentCalculator();
+		BigDecimal monthlyPayment = paymentCalculator.calculatePayment(this.presentValue, this.rate, this.term);
+		if (this.presentValue.doubleValue() > monthlyPayment.doubleValue()) {
+			return monthlyPayment;
+		}
+		//Loans smaller than one payment are paid off, with interest, in a single payment.
+		BigDecimal adjustedRate = rate.divide(new BigDecimal("1200"), 2, BigDecimal.ROUND_UNNECESSARY);
+		BigDecimal interest = this.presentValue.multiply(adjustedRate).setScale(2, BigDecimal.ROUND_HALF_UP);
+		return this.presentValue.setScale(2, BigDecimal.ROUND_HALF_UP).add(interest);
+	}
+
 	public BigDecimal getCumulativeInterest() { return this.cumulativeInterest; }
 	public BigDecimal getCumulativePrincipal() { return this.cumulativePrincipal; }
 }
\ No newline at end of file
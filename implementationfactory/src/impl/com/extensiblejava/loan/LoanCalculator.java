@@ -4,6 +4,7 @@ import java.math.*;
 
 public interface LoanCalculator {
 	public PaymentSchedule calculatePaymentSchedule();
+	public BigDecimal calculateMonthlyPayment();
 	public BigDecimal getCumulativeInterest();
 	public BigDecimal getCumulativePrincipal();
 
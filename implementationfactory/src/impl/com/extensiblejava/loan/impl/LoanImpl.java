@@ -23,7 +23,7 @@ public class LoanImpl implements Loan {
 
 	public BigDecimal getMonthlyPayment() {
 		if (this.paymentSchedule == null) {
-			this.paymentSchedule = loanCalculator.calculatePaymentSchedule();
+			return loanCalculator.calculateMonthlyPayment().setScale(2, BigDecimal.ROUND_HALF_UP);
 		}
 		Iterator payments = this.paymentSchedule.getPayments();
 		BigDecimal monthlyPayment = null;
@@ -37,10 +37,7 @@ public class LoanImpl implements Loan {
 	}
 
 	public BigDecimal getFinalPayment() {
-		if (this.paymentSchedule == null) {
-			this.paymentSchedule = loanCalculator.calculatePaymentSchedule();
-		}
-		Iterator payments = this.paymentSchedule.getPayments();
+		Iterator payments = calculatePaymentSchedule().getPayments();
 		Payment payment = null;
 		while (payments.hasNext()) {
 			payment = (Payment) payments.next();
@@ -51,9 +48,19 @@ public class LoanImpl implements Loan {
 
 	}
 
-	public BigDecimal getCumulativeInterest() { return this.loanCalculator.getCumulativeInterest(); }
-	public BigDecimal getCumulativePrincipal() { return this.loanCalculator.getCumulativePrincipal(); }
+	//The calculator only knows the totals once it has built the schedule.
+	public BigDecimal getCumulativeInterest() {
+		calculatePaymentSchedule();
+		return this.loanCalculator.getCumulativeInterest();
+	}
+
+	public BigDecimal getCumulativePrincipal() {
+		calculatePaymentSchedule();
+		return this.loanCalculator.getCumulativePrincipal();
+	}
+
 	public BigDecimal getTotalPayments() {
+		calculatePaymentSchedule();
 		BigDecimal totalPayments =  this.loanCalculator.getCumulativePrincipal().add(this.loanCalculator.getCumulativeInterest());
 		totalPayments = totalPayments.setScale(2, BigDecimal.ROUND_HALF_UP);
 		return totalPayments;
@@ -22,6 +22,6 @@ Status: <bean:write name="bill" property="status"/><BR>
 </logic:present>
 <BR><BR>
 <html:link page="/audit.do" paramId="billId" paramName="bill" paramProperty="billId">Audit</html:link><BR>
-<html:link page="/pay.do" paramId="billId" paramName="bill" paramProperty="billId">Pay</html:link>
+<html:link page="/pay.do" name="payParams">Pay</html:link>
 </body>
 </html:html>
@@ -13,12 +13,24 @@
 <h1>BillPay Application - Customer list</h1>
 
 <h3><bean:write name="customerbills" property="name"/></h3><BR>
+<logic:present name="invalidpage">
+<p>That page link is not valid, so the first page is shown.</p>
+</logic:present>
+<logic:present name="customerbills" property="totals">
+	Billed: <bean:write name="customerbills" property="totals.billed"/><BR>
+	Audited: <bean:write name="customerbills" property="totals.audited"/><BR>
+	Paid: <bean:write name="customerbills" property="totals.paid"/><BR>
+	Outstanding: <bean:write name="customerbills" property="totals.outstanding"/><BR><BR>
+</logic:present>
 <bean:define id="thebills" name="customerbills" property="bills"/>
 <logic:iterate id="billitem" name="thebills">
 	<html:link page="/billDetail.do" paramId="billId" paramName="billitem" paramProperty="billId">
 		<bean:write name="billitem" property="name"/><BR>
 	</html:link>
 </logic:iterate>
+<logic:present name="customerbills" property="nextParams">
+	<BR><html:link page="/customerSearch.do" name="customerbills" property="nextParams">Next</html:link>
+</logic:present>
 
 </body>
 </html:html>
@@ -11,8 +11,17 @@
 <body bgcolor="white">
 
 <h3>BillPay Application - Customer Search</h3>
+<logic:present name="notfound">
+<p>No customer found with ID <bean:write name="notfound"/>.</p>
+</logic:present>
 <html:form styleId="searchform" action="/customerSearch">
 Enter ID: <html:text name="customerSearchForm" property="customerId" size="2" maxlength="2"/>
+Status: <html:select name="customerSearchForm" property="status">
+	<html:option value="">All</html:option>
+	<html:option value="NEW">New</html:option>
+	<html:option value="AUDITED">Audited</html:option>
+	<html:option value="PAID">Paid</html:option>
+</html:select>
 <html:submit/>
 </html:form>
 </body>
@@ -5,8 +5,7 @@ import java.math.*;
 
 public class AuditFacade {
 	public BigDecimal audit(Bill bill) {
-		BigDecimal amount = bill.getAmount();
-		BigDecimal auditedAmount = amount.multiply(new BigDecimal("0.75"));
-		return auditedAmount.setScale(2);
+		AuditRules rules = AuditRuleLoader.getInstance().getRules();
+		return BigDecimal.valueOf(rules.audit(bill.getName(), bill.getCustId().intValue(), bill.getAmountCents()), 2);
 	}
 }
\ No newline at end of file
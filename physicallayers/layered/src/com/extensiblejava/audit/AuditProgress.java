@@ -0,0 +1,5 @@
+package com.extensiblejava.audit;
+
+public interface AuditProgress {
+	public void batchAudited(long audited, long total);
+}
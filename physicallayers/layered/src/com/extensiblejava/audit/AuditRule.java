@@ -0,0 +1,64 @@
+package com.extensiblejava.audit;
+
+import java.math.*;
+
+/*
+ * One row of the audit rule table: bills with this name, for this customer, and with an
+ * amount from minCents up to but not including maxCents are audited at amount times factor.
+ * A null name or customer matches any.
+ */
+public class AuditRule {
+	private String name;
+	private Integer custId;
+	private long minCents;
+	private long maxCents;
+	private BigDecimal factor;
+	private long factorUnscaled;
+	private long factorDivisor;
+
+	public AuditRule(String name, Integer custId, long minCents, long maxCents, BigDecimal factor) {
+		if (minCents >= maxCents) {
+			throw new IllegalArgumentException("Empty amount band " + minCents + " to " + maxCents);
+		}
+		if (factor.scale() < 0) {
+			factor = factor.setScale(0);
+		}
+		if (factor.scale() > 18) {
+			throw new IllegalArgumentException("Audit factor has too many decimal places: " + factor);
+		}
+		this.name = name;
+		this.custId = custId;
+		this.minCents = minCents;
+		this.maxCents = maxCents;
+		this.factor = factor;
+		this.factorUnscaled = factor.unscaledValue().longValue();
+		this.factorDivisor = BigInteger.TEN.pow(factor.scale()).longValue();
+	}
+
+	public String getName() { return this.name; }
+	public Integer getCustId() { return this.custId; }
+	public long getMinCents() { return this.minCents; }
+	public long getMaxCents() { return this.maxCents; }
+	public BigDecimal getFactor() { return this.factor; }
+
+	boolean covers(long cents) {
+		return this.minCents <= cents && cents < this.maxCents;
+	}
+
+	/*
+	 * The audited amount in cents, rounded half up. Long arithmetic unless the product would
+	 * overflow.
+	 */
+	long apply(long cents) {
+		if (this.factor.unscaledValue().bitLength() < 63 && cents != Long.MIN_VALUE
+				&& Math.abs(cents) < Long.MAX_VALUE / Math.max(1, Math.abs(this.factorUnscaled))) {
+			long product = cents * this.factorUnscaled;
+			long quotient = product / this.factorDivisor;
+			if (Math.abs(product % this.factorDivisor) * 2 >= this.factorDivisor) {
+				quotient += Long.signum(product);
+			}
+			return quotient;
+		}
+		return BigDecimal.valueOf(cents).multiply(this.factor).setScale(0, BigDecimal.ROUND_HALF_UP).longValueExact();
+	}
+}
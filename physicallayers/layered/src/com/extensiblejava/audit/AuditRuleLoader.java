@@ -0,0 +1,76 @@
+package com.extensiblejava.audit;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.logging.*;
+import javax.management.*;
+
+/*
+ * Holds the audit rule table in force. The table is read from the file named by the
+ * audit.rules property, or is the default 0.75 factor when there is none. A reload compiles
+ * the file into a new table and swaps it in, so an audit never waits on a reload and a file
+ * that fails to load leaves the previous table in force. At startup that is the default, so a
+ * missing or broken file is logged rather than stopping the class from loading.
+ */
+public class AuditRuleLoader implements AuditRuleLoaderMBean {
+	private static final Logger logger = Logger.getLogger(AuditRuleLoader.class.getName());
+	private static final AuditRuleLoader instance = register(new AuditRuleLoader(System.getProperty("audit.rules")));
+
+	private String rulesFile;
+	private volatile AuditRules rules = AuditRules.DEFAULT;
+	private volatile long loadedAt;
+
+	public static AuditRuleLoader getInstance() {
+		return instance;
+	}
+
+	private static AuditRuleLoader register(AuditRuleLoader loader) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(loader, new ObjectName("com.extensiblejava.audit:type=AuditRuleLoader"));
+		} catch (Exception e) {
+			// rules are still loaded and applied, only not reloadable over JMX
+		}
+		return loader;
+	}
+
+	public AuditRuleLoader(String rulesFile) {
+		this.rulesFile = rulesFile;
+		this.loadedAt = System.currentTimeMillis();
+		if (rulesFile != null) {
+			try {
+				reload();
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Auditing with the default rules; " + e.getMessage(), e);
+			}
+		}
+	}
+
+	public AuditRules getRules() {
+		return this.rules;
+	}
+
+	public void setRules(AuditRules rules) {
+		this.rules = rules;
+		this.loadedAt = System.currentTimeMillis();
+	}
+
+	public void reload() {
+		if (this.rulesFile == null) {
+			return;
+		}
+		try {
+			Reader in = new FileReader(this.rulesFile);
+			try {
+				setRules(AuditRules.parse(in));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to load audit rules from " + this.rulesFile, e);
+		}
+	}
+
+	public String getRulesFile() { return this.rulesFile; }
+	public int getRuleCount() { return this.rules.getRuleCount(); }
+	public long getLoadedAt() { return this.loadedAt; }
+}
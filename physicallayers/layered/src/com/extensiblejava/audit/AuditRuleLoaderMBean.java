@@ -0,0 +1,8 @@
+package com.extensiblejava.audit;
+
+public interface AuditRuleLoaderMBean {
+	public String getRulesFile();
+	public int getRuleCount();
+	public long getLoadedAt();
+	public void reload();
+}
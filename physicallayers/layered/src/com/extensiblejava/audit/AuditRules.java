@@ -0,0 +1,187 @@
+package com.extensiblejava.audit;
+
+import java.io.*;
+import java.math.*;
+import java.util.*;
+
+/*
+ * An audit rule table compiled for lookup. Rules are hashed by bill name, with the rules for
+ * any name folded into every name's entry, and each entry splits the amount line into bands
+ * at every rule boundary. A band knows the first rule covering it that applies to every
+ * customer and, sorted by customer id, any earlier rule for a particular customer, so auditing
+ * a bill is one hash lookup and two binary searches whatever the size of the table. The first
+ * matching rule in table order wins; a bill no rule matches is audited at its full amount.
+ *
+ * A compiled table never changes. Loading new rules compiles a new table alongside the old
+ * one, which audits already under way go on using.
+ */
+public class AuditRules {
+	public static final AuditRules DEFAULT = compile(Collections.singletonList(
+			new AuditRule(null, null, Long.MIN_VALUE, Long.MAX_VALUE, new BigDecimal("0.75"))));
+
+	private HashMap bandsByName;
+	private Bands anyName;
+	private int ruleCount;
+
+	private AuditRules(HashMap bandsByName, Bands anyName, int ruleCount) {
+		this.bandsByName = bandsByName;
+		this.anyName = anyName;
+		this.ruleCount = ruleCount;
+	}
+
+	/*
+	 * Compiles the rules, which are matched in the order given.
+	 */
+	public static AuditRules compile(List rules) {
+		ArrayList anyNameRules = new ArrayList();
+		LinkedHashMap rulesByName = new LinkedHashMap();
+		for (int i = 0; i < rules.size(); i++) {
+			AuditRule rule = (AuditRule) rules.get(i);
+			if (rule.getName() != null && !rulesByName.containsKey(rule.getName())) {
+				rulesByName.put(rule.getName(), new ArrayList());
+			}
+		}
+		for (int i = 0; i < rules.size(); i++) {
+			AuditRule rule = (AuditRule) rules.get(i);
+			if (rule.getName() == null) {
+				anyNameRules.add(rule);
+				Iterator named = rulesByName.values().iterator();
+				while (named.hasNext()) {
+					((List) named.next()).add(rule);
+				}
+			} else {
+				((List) rulesByName.get(rule.getName())).add(rule);
+			}
+		}
+		HashMap bandsByName = new HashMap();
+		Iterator entries = rulesByName.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry entry = (Map.Entry) entries.next();
+			bandsByName.put(entry.getKey(), new Bands((List) entry.getValue()));
+		}
+		return new AuditRules(bandsByName, new Bands(anyNameRules), rules.size());
+	}
+
+	/*
+	 * Reads a rule table with one rule per line:
+	 *
+	 *     name,custId,minAmount,maxAmount,factor
+	 *
+	 * An empty name or customer, or *, matches any; an empty minimum or maximum leaves that end
+	 * of the band open. Blank lines and lines starting with # are ignored.
+	 */
+	public static AuditRules parse(Reader in) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		ArrayList rules = new ArrayList();
+		String line;
+		int lineNumber = 0;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			line = line.trim();
+			if (line.length() == 0 || line.startsWith("#")) {
+				continue;
+			}
+			String[] fields = line.split(",", -1);
+			if (fields.length != 5) {
+				throw new IllegalArgumentException("Line " + lineNumber + " of audit rules: expected 5 fields but found " + fields.length);
+			}
+			try {
+				String name = any(fields[0]) ? null : fields[0].trim();
+				Integer custId = any(fields[1]) ? null : Integer.valueOf(fields[1].trim());
+				long min = any(fields[2]) ? Long.MIN_VALUE : cents(fields[2]);
+				long max = any(fields[3]) ? Long.MAX_VALUE : cents(fields[3]);
+				rules.add(new AuditRule(name, custId, min, max, new BigDecimal(fields[4].trim())));
+			} catch (RuntimeException e) {
+				throw new IllegalArgumentException("Line " + lineNumber + " of audit rules: " + e.getMessage(), e);
+			}
+		}
+		return compile(rules);
+	}
+
+	private static boolean any(String field) {
+		field = field.trim();
+		return field.length() == 0 || field.equals("*");
+	}
+
+	private static long cents(String amount) {
+		return new BigDecimal(amount.trim()).setScale(2, BigDecimal.ROUND_UNNECESSARY).unscaledValue().longValueExact();
+	}
+
+	/*
+	 * The audited amount, in cents, of a bill with the given name, customer and amount.
+	 */
+	public long audit(String name, int custId, long amountCents) {
+		Bands bands = name == null ? null : (Bands) this.bandsByName.get(name);
+		AuditRule rule = (bands == null ? this.anyName : bands).find(custId, amountCents);
+		return rule == null ? amountCents : rule.apply(amountCents);
+	}
+
+	public int getRuleCount() { return this.ruleCount; }
+
+	/*
+	 * The rules for one name, split into bands at every rule boundary. starts[i] is where band i
+	 * begins; it ends where band i + 1 begins.
+	 */
+	private static class Bands {
+		private long[] starts;
+		private AuditRule[] anyCustomer;
+		private int[][] custIds;
+		private AuditRule[][] customerRules;
+
+		Bands(List rules) {
+			TreeSet bounds = new TreeSet();
+			bounds.add(Long.valueOf(Long.MIN_VALUE));
+			for (int i = 0; i < rules.size(); i++) {
+				AuditRule rule = (AuditRule) rules.get(i);
+				bounds.add(Long.valueOf(rule.getMinCents()));
+				if (rule.getMaxCents() != Long.MAX_VALUE) {
+					bounds.add(Long.valueOf(rule.getMaxCents()));
+				}
+			}
+			int bandCount = bounds.size();
+			this.starts = new long[bandCount];
+			this.anyCustomer = new AuditRule[bandCount];
+			this.custIds = new int[bandCount][];
+			this.customerRules = new AuditRule[bandCount][];
+			Iterator iterator = bounds.iterator();
+			for (int band = 0; band < bandCount; band++) {
+				this.starts[band] = ((Long) iterator.next()).longValue();
+				TreeMap firstForCustomer = new TreeMap();
+				for (int i = 0; i < rules.size() && this.anyCustomer[band] == null; i++) {
+					AuditRule rule = (AuditRule) rules.get(i);
+					if (!rule.covers(this.starts[band])) {
+						continue;
+					}
+					if (rule.getCustId() == null) {
+						this.anyCustomer[band] = rule;
+					} else if (!firstForCustomer.containsKey(rule.getCustId())) {
+						firstForCustomer.put(rule.getCustId(), rule);
+					}
+				}
+				this.custIds[band] = new int[firstForCustomer.size()];
+				this.customerRules[band] = new AuditRule[firstForCustomer.size()];
+				Iterator customers = firstForCustomer.entrySet().iterator();
+				for (int i = 0; customers.hasNext(); i++) {
+					Map.Entry entry = (Map.Entry) customers.next();
+					this.custIds[band][i] = ((Integer) entry.getKey()).intValue();
+					this.customerRules[band][i] = (AuditRule) entry.getValue();
+				}
+			}
+		}
+
+		AuditRule find(int custId, long cents) {
+			int low = 0;
+			int high = this.starts.length - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (this.starts[middle] <= cents) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			int customer = Arrays.binarySearch(this.custIds[low], custId);
+			return customer >= 0 ? this.customerRules[low][customer] : this.anyCustomer[low];
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package com.extensiblejava.audit;
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+
+/*
+ * Audits every NEW bill in the store. The caller's thread streams NEW bills off the status
+ * index into batches, a bounded pool audits each batch, and the caller is held back whenever
+ * the pool falls behind. Each batch is saved as next versions with one compareAndSetAll, so an
+ * audit never overwrites a change made since the bill was read. A bill changed concurrently
+ * comes back as a conflict and is reread: if it is still NEW it is audited again and saved in
+ * another round, and if it was audited or paid meanwhile it is left as it is.
+ *
+ * Nothing needs checkpointing to make the job restartable: an audited bill is no longer NEW
+ * once its batch is saved, so running the job again after a crash picks up exactly the bills
+ * whose batches never made it to the store.
+ */
+public class BulkAudit {
+	private int workers;
+	private int batchSize;
+	private AuditProgress progress;
+	private AuditFacade auditor = new AuditFacade();
+	private AtomicLong audited = new AtomicLong();
+	private AtomicReference failure = new AtomicReference();
+	private volatile boolean cancelled;
+	private long total;
+
+	public static void main(String args[]) {
+		int workers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		final long start = System.currentTimeMillis();
+		BulkAudit audit = new BulkAudit(workers, batchSize, new AuditProgress() {
+			public void batchAudited(long audited, long total) {
+				long elapsed = Math.max(1, System.currentTimeMillis() - start);
+				System.out.println("Audited " + audited + " of " + total + " (" + (audited * 1000 / elapsed) + " bills/sec)");
+			}
+		});
+		System.out.println("Audited " + audit.run() + " bills in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	public BulkAudit(int workers, int batchSize, AuditProgress progress) {
+		this.workers = workers;
+		this.batchSize = batchSize;
+		this.progress = progress;
+	}
+
+	/*
+	 * Runs the audit to completion and returns the number of bills audited.
+	 */
+	public long run() {
+		this.total = BillDb.countBills(BillDataBean.NEW);
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(this.workers, this.workers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue(this.workers * 2), new ThreadPoolExecutor.CallerRunsPolicy());
+		try {
+			Iterator newBills = BillDb.getBillsByStatus(BillDataBean.NEW);
+			ArrayList batch = new ArrayList(this.batchSize);
+			while (newBills.hasNext() && !this.cancelled && this.failure.get() == null) {
+				batch.add(newBills.next());
+				if (batch.size() == this.batchSize) {
+					pool.execute(auditTask(batch));
+					batch = new ArrayList(this.batchSize);
+				}
+			}
+			if (!batch.isEmpty() && !this.cancelled && this.failure.get() == null) {
+				pool.execute(auditTask(batch));
+			}
+		} finally {
+			pool.shutdown();
+			try {
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Throwable cause = (Throwable) this.failure.get();
+		if (cause != null) {
+			throw new IllegalStateException("Bulk audit stopped after " + this.audited.get() + " bills", cause);
+		}
+		return this.audited.get();
+	}
+
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public long getAudited() { return this.audited.get(); }
+	public long getTotal() { return this.total; }
+
+	private Runnable auditTask(final List batch) {
+		return new Runnable() {
+			public void run() {
+				try {
+					auditBatch(batch);
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+		};
+	}
+
+	/*
+	 * Audits the batch and saves it with version checks. A bill someone changed in the meantime
+	 * is reread and, if still NEW, audited again in the next round.
+	 */
+	private void auditBatch(List batch) {
+		ArrayList saved = new ArrayList(batch.size());
+		List candidates = batch;
+		while (!candidates.isEmpty()) {
+			ArrayList audits = new ArrayList(candidates.size());
+			Iterator iterator = candidates.iterator();
+			while (iterator.hasNext()) {
+				BillDataBean bean = (BillDataBean) iterator.next();
+				if (bean == null || !BillDataBean.NEW.equals(bean.getStatus())) {
+					continue;
+				}
+				BillDataBean audited = bean.nextVersion();
+				audited.setAuditedAmount(this.auditor.audit(new Bill(bean)));
+				audits.add(audited);
+			}
+			List conflicts = BillDb.compareAndSetAll(audits);
+			audits.removeAll(conflicts);
+			saved.addAll(audits);
+
+			ArrayList reread = new ArrayList(conflicts.size());
+			iterator = conflicts.iterator();
+			while (iterator.hasNext()) {
+				reread.add(BillDb.getBill(((BillDataBean) iterator.next()).getBillId()));
+			}
+			candidates = reread;
+		}
+
+		EntityCache cache = EntityCache.getInstance();
+		Iterator iterator = saved.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			cache.invalidateBill(bean.getBillId());
+			cache.invalidateCustomer(bean.getCustId());
+		}
+		long done = this.audited.addAndGet(saved.size());
+		if (this.progress != null) {
+			this.progress.batchAudited(done, this.total);
+		}
+	}
+}
@@ -7,7 +7,7 @@ import com.extensiblejava.bill.data.*;
 
 public class Bill {
 
-	private BillDataBean billData;
+	private volatile BillDataBean billData;
 
 	public static Bill loadBill(BillEntityLoader loader) {
 		return loader.loadBill();
@@ -17,35 +17,49 @@ public class Bill {
 	}
 
 	public String getBillId() {	return this.billData.getBillId().toString(); }
+	public Integer getCustId() { return this.billData.getCustId(); }
 	public String getName() { return this.billData.getName(); }
 	public BigDecimal getAmount() { return this.billData.getAmount(); }
+	public long getAmountCents() { return this.billData.getAmountCents(); }
 	public BigDecimal getAuditedAmount() { return (this.billData.getAuditedAmount() == null ? null : this.billData.getAuditedAmount()); }
 	public BigDecimal getPaidAmount() { return this.billData.getPaidAmount(); }
-	public String getStatus() {
-		if (this.billData.getPaidAmount() != null) {
-			return "PAID";
-		} else if (this.billData.getAuditedAmount() != null) {
-			return "AUDITED";
-		} else {
-			return "NEW";
-		}
-	}
+	public String getStatus() { return this.billData.getStatus(); }
+	long getVersion() { return this.billData.getVersion(); }
 
 	public void audit() {
 		AuditFacade auditor = new AuditFacade();
-		this.billData.setAuditedAmount(auditor.audit(this));
-		this.persist();
+		while (true) {
+			BillDataBean audited = this.billData.nextVersion();
+			audited.setAuditedAmount(auditor.audit(this));
+			if (this.persist(audited)) {
+				return;
+			}
+		}
 	}
 
 	public void pay() {
-		if (this.billData.getPaidAmount() == null) {
-			Payment payer = new Payment();
-			this.billData.setPaidAmount(payer.generateDraft(this));
-			this.persist();
+		Payment payer = new Payment();
+		while (this.billData.getPaidAmount() == null) {
+			BillDataBean paid = this.billData.nextVersion();
+			paid.setPaidAmount(payer.generateDraft(this));
+			if (this.persist(paid)) {
+				return;
+			}
 		}
 	}
 
-	private void persist() {
-		BillDb.update(billData);
+	/*
+	 * Stores next unless someone else changed the bill after this Bill read it. On a conflict
+	 * the stored state is reloaded instead, so the caller decides again from what is there now;
+	 * a bill that was paid meanwhile is therefore never paid twice.
+	 */
+	private boolean persist(BillDataBean next) {
+		if (BillDb.compareAndSet(next)) {
+			this.billData = next;
+			EntityCache.getInstance().billPersisted(next.getBillId(), next.getCustId(), this);
+			return true;
+		}
+		this.billData = BillDb.getBill(next.getBillId());
+		return false;
 	}
 }
\ No newline at end of file
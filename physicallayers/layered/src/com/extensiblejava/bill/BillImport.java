@@ -0,0 +1,652 @@
+package com.extensiblejava.bill;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import com.extensiblejava.bill.data.*;
+
+/*
+ * Streams bills into BillDb from CSV or JSON lines. Records are parsed straight off a byte
+ * buffer, ids and amounts included, so the only object built per record besides the bill is
+ * its name. Bills are committed a batch at a time on a second thread while the next batch is
+ * parsed, and the store fills in each customer's bills, totals and status index as it goes.
+ * Committing through BillDb publishes each imported bill like any other change.
+ *
+ * CSV lines are billId,custId,name,amount[,auditedAmount[,paidAmount]], with an optional
+ * header and names quoted as needed. JSON lines are flat objects with those same keys.
+ *
+ * Bills are committed with BillDb.insertAll as version 1: a bill the store already holds, at
+ * any version and for any customer, is skipped and left as it is, so an import that stopped
+ * part way can simply be run again. Customers are not imported: a bill for a customer BillDb
+ * does not know is rejected and counted.
+ */
+public class BillImport {
+	public static final int CSV = 0;
+	public static final int JSONL = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final long MAX_UNITS = Long.MAX_VALUE / 1000;
+	private static final byte[][] KEYS = {
+		bytes("billId"), bytes("custId"), bytes("name"), bytes("amount"), bytes("auditedAmount"), bytes("paidAmount")
+	};
+	private static final int BILL_ID = 0;
+	private static final int CUST_ID = 1;
+	private static final int NAME = 2;
+	private static final int AMOUNT = 3;
+	private static final int AUDITED_AMOUNT = 4;
+	private static final int PAID_AMOUNT = 5;
+
+	private int format;
+	private int batchSize;
+	private ImportProgress progress;
+	private volatile long imported;
+	private volatile long skipped;
+	private volatile long rejected;
+	private HashSet knownCustomers = new HashSet();
+
+	private InputStream in;
+	private byte[] buffer = new byte[64 * 1024];
+	private int position;
+	private int limit;
+	private long bytesRead;
+	private long line;
+	private byte[] text = new byte[256];
+	private byte[] lastNameBytes = new byte[0];
+	private String lastName;
+
+	public static void main(String args[]) throws IOException {
+		if (args.length < 1) {
+			System.out.println("Usage: BillImport <bills.csv|bills.jsonl> [batchSize]");
+			return;
+		}
+		int format = args[0].endsWith(".jsonl") || args[0].endsWith(".json") ? JSONL : CSV;
+		int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		final long start = System.currentTimeMillis();
+		BillImport billImport = new BillImport(format, batchSize, new ImportProgress() {
+			public void batchImported(long imported, long skipped, long bytesRead) {
+				long elapsed = Math.max(1, System.currentTimeMillis() - start);
+				System.out.println("Imported " + imported + " bills, skipped " + skipped + " (" + (imported * 1000 / elapsed)
+						+ " bills/sec, " + (bytesRead * 1000 / 1024 / elapsed) + " KB/sec)");
+			}
+		});
+		InputStream in = new FileInputStream(args[0]);
+		try {
+			long imported = billImport.run(in);
+			System.out.println("Imported " + imported + " bills in " + (System.currentTimeMillis() - start) + " ms");
+			if (billImport.getRejected() > 0) {
+				System.out.println("Rejected " + billImport.getRejected() + " bills for unknown customers");
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	public BillImport(int format, int batchSize, ImportProgress progress) {
+		if (format != CSV && format != JSONL) {
+			throw new IllegalArgumentException("Unknown import format: " + format);
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		}
+		this.format = format;
+		this.batchSize = batchSize;
+		this.progress = progress;
+	}
+
+	/*
+	 * Imports every record in, which the caller closes, and returns the number of bills added.
+	 * A malformed record stops the import with the line it was found on; the batches before it
+	 * stay committed.
+	 */
+	public long run(InputStream in) throws IOException {
+		this.in = in;
+		this.line = 1;
+		ExecutorService committer = Executors.newSingleThreadExecutor();
+		try {
+			Future pending = null;
+			ArrayList batch = new ArrayList(this.batchSize);
+			if (this.format == CSV) {
+				skipHeader();
+			}
+			BillDataBean bean;
+			while ((bean = this.format == CSV ? readCsv() : readJson()) != null) {
+				batch.add(bean);
+				if (batch.size() == this.batchSize) {
+					await(pending);
+					pending = committer.submit(commitTask(batch, consumed()));
+					batch = new ArrayList(this.batchSize);
+				}
+			}
+			await(pending);
+			if (!batch.isEmpty()) {
+				commit(batch, consumed());
+			}
+			return this.imported;
+		} finally {
+			committer.shutdown();
+		}
+	}
+
+	public long getImported() { return this.imported; }
+	public long getSkipped() { return this.skipped; }
+	public long getRejected() { return this.rejected; }
+
+	private Runnable commitTask(final List batch, final long bytes) {
+		return new Runnable() {
+			public void run() {
+				commit(batch, bytes);
+			}
+		};
+	}
+
+	/*
+	 * Runs on one thread at a time, the committer or, for the last batch, the caller after the
+	 * committer is done, so knownCustomers needs no lock.
+	 */
+	private void commit(List batch, long bytes) {
+		ArrayList accepted = new ArrayList(batch.size());
+		HashSet customers = new HashSet();
+		Iterator iterator = batch.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			if (isKnownCustomer(bean.getCustId())) {
+				accepted.add(bean);
+				customers.add(bean.getCustId());
+			}
+		}
+		this.rejected += batch.size() - accepted.size();
+		List existing = accepted.isEmpty() ? Collections.EMPTY_LIST : BillDb.insertAll(accepted);
+		EntityCache cache = EntityCache.getInstance();
+		iterator = customers.iterator();
+		while (iterator.hasNext()) {
+			cache.invalidateCustomer((Integer) iterator.next());
+		}
+		this.imported += accepted.size() - existing.size();
+		this.skipped += existing.size();
+		if (this.progress != null) {
+			this.progress.batchImported(this.imported, this.skipped, bytes);
+		}
+	}
+
+	private boolean isKnownCustomer(Integer custId) {
+		if (this.knownCustomers.contains(custId)) {
+			return true;
+		}
+		if (BillDb.getCustomer(custId) == null) {
+			return false;
+		}
+		this.knownCustomers.add(custId);
+		return true;
+	}
+
+	private void await(Future pending) {
+		if (pending == null) {
+			return;
+		}
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BillDbException("Interrupted while importing bills", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new BillDbException("Unable to import bills", e.getCause());
+		}
+	}
+
+	private void skipHeader() throws IOException {
+		skipLineBreaks();
+		int b = peek();
+		if (b >= 0 && b != '-' && !isDigit(b)) {
+			while ((b = peek()) >= 0 && b != '\n') {
+				next();
+			}
+		}
+	}
+
+	private BillDataBean readCsv() throws IOException {
+		skipLineBreaks();
+		if (peek() < 0) {
+			return null;
+		}
+		int billId = readInt();
+		expect(',');
+		int custId = readInt();
+		expect(',');
+		String name = readCsvName();
+		expect(',');
+		long amount = readCents();
+		long auditedAmount = BillDataBean.NO_AMOUNT;
+		long paidAmount = BillDataBean.NO_AMOUNT;
+		if (peek() == ',') {
+			next();
+			auditedAmount = readCents();
+			if (peek() == ',') {
+				next();
+				paidAmount = readCents();
+			}
+		}
+		endLine();
+		if (amount == BillDataBean.NO_AMOUNT) {
+			throw error("bill " + billId + " has no amount");
+		}
+		return new BillDataBean(billId, custId, name, amount, auditedAmount, paidAmount, 1);
+	}
+
+	private String readCsvName() throws IOException {
+		int length = 0;
+		int b = peek();
+		if (b == '"') {
+			next();
+			while (true) {
+				b = next();
+				if (b < 0) {
+					throw error("unterminated name");
+				}
+				if (b == '"') {
+					if (peek() != '"') {
+						break;
+					}
+					next();
+				} else if (b == '\n') {
+					this.line++;
+				}
+				length = append(length, b);
+			}
+		} else {
+			while ((b = peek()) >= 0 && b != ',' && b != '\r' && b != '\n') {
+				length = append(length, next());
+			}
+			if (length == 0) {
+				return null;
+			}
+		}
+		return name(length);
+	}
+
+	private BillDataBean readJson() throws IOException {
+		skipLineBreaks();
+		if (peek() < 0) {
+			return null;
+		}
+		expect('{');
+		Integer billId = null;
+		Integer custId = null;
+		String name = null;
+		long amount = BillDataBean.NO_AMOUNT;
+		long auditedAmount = BillDataBean.NO_AMOUNT;
+		long paidAmount = BillDataBean.NO_AMOUNT;
+		skipSpaces();
+		if (peek() == '}') {
+			next();
+		} else {
+			while (true) {
+				skipSpaces();
+				int key = readKey();
+				skipSpaces();
+				expect(':');
+				skipSpaces();
+				switch (key) {
+				case BILL_ID:
+					billId = Integer.valueOf(readInt());
+					break;
+				case CUST_ID:
+					custId = Integer.valueOf(readInt());
+					break;
+				case NAME:
+					name = readJsonString();
+					break;
+				case AMOUNT:
+					amount = readJsonCents();
+					break;
+				case AUDITED_AMOUNT:
+					auditedAmount = readJsonCents();
+					break;
+				case PAID_AMOUNT:
+					paidAmount = readJsonCents();
+					break;
+				default:
+					skipJsonValue();
+				}
+				skipSpaces();
+				int b = next();
+				if (b == '}') {
+					break;
+				}
+				if (b != ',') {
+					throw error("expected ',' or '}'");
+				}
+			}
+		}
+		skipSpaces();
+		endLine();
+		if (billId == null || custId == null) {
+			throw error("record needs both billId and custId");
+		}
+		if (amount == BillDataBean.NO_AMOUNT) {
+			throw error("bill " + billId + " has no amount");
+		}
+		return new BillDataBean(billId.intValue(), custId.intValue(), name, amount, auditedAmount, paidAmount, 1);
+	}
+
+	/*
+	 * Reads a quoted key and returns its index in KEYS, or -1 for a key that is not a bill field.
+	 */
+	private int readKey() throws IOException {
+		expect('"');
+		int length = 0;
+		int b;
+		while ((b = next()) != '"') {
+			if (b < 0 || b == '\n') {
+				throw error("unterminated key");
+			}
+			length = append(length, b);
+		}
+		for (int i = 0; i < KEYS.length; i++) {
+			if (matches(KEYS[i], this.text, length)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private String readJsonString() throws IOException {
+		if (peek() == 'n') {
+			expectLiteral("null");
+			return null;
+		}
+		expect('"');
+		int length = 0;
+		while (true) {
+			int b = next();
+			if (b < 0 || b == '\n') {
+				throw error("unterminated string");
+			}
+			if (b == '"') {
+				break;
+			}
+			if (b != '\\') {
+				length = append(length, b);
+				continue;
+			}
+			b = next();
+			switch (b) {
+			case 'b': length = append(length, '\b'); break;
+			case 'f': length = append(length, '\f'); break;
+			case 'n': length = append(length, '\n'); break;
+			case 'r': length = append(length, '\r'); break;
+			case 't': length = append(length, '\t'); break;
+			case 'u':
+				int c = readHex();
+				if (Character.isHighSurrogate((char) c)) {
+					expect('\\');
+					expect('u');
+					c = Character.toCodePoint((char) c, (char) readHex());
+				}
+				byte[] encoded = new String(Character.toChars(c)).getBytes(UTF8);
+				for (int i = 0; i < encoded.length; i++) {
+					length = append(length, encoded[i] & 0xff);
+				}
+				break;
+			default:
+				if (b < 0) {
+					throw error("unterminated string");
+				}
+				length = append(length, b);
+			}
+		}
+		return name(length);
+	}
+
+	private int readHex() throws IOException {
+		int value = 0;
+		for (int i = 0; i < 4; i++) {
+			int digit = Character.digit(next(), 16);
+			if (digit < 0) {
+				throw error("bad \\u escape");
+			}
+			value = value * 16 + digit;
+		}
+		return value;
+	}
+
+	private long readJsonCents() throws IOException {
+		if (peek() == 'n') {
+			expectLiteral("null");
+			return BillDataBean.NO_AMOUNT;
+		}
+		long cents = readCents();
+		if (cents == BillDataBean.NO_AMOUNT) {
+			throw error("expected an amount");
+		}
+		return cents;
+	}
+
+	private void skipJsonValue() throws IOException {
+		int b = peek();
+		if (b == '"' || b == 'n') {
+			readJsonString();
+		} else if (b == 't') {
+			expectLiteral("true");
+		} else if (b == 'f') {
+			expectLiteral("false");
+		} else if (b == '-' || isDigit(b)) {
+			while ((b = peek()) == '-' || b == '+' || b == '.' || b == 'e' || b == 'E' || isDigit(b)) {
+				next();
+			}
+		} else {
+			throw error("nested values are not supported");
+		}
+	}
+
+	/*
+	 * Reads a decimal amount, optionally quoted, as cents. Returns NO_AMOUNT when there is no
+	 * number here at all, as for an empty CSV field.
+	 */
+	private long readCents() throws IOException {
+		int b = peek();
+		if (b == '"') {
+			next();
+			long cents = readCents();
+			expect('"');
+			return cents;
+		}
+		boolean negative = b == '-';
+		if (negative) {
+			next();
+		}
+		long units = 0;
+		int digits = 0;
+		while (isDigit(b = peek())) {
+			if (units > MAX_UNITS) {
+				throw error("amount out of range");
+			}
+			units = units * 10 + (b - '0');
+			digits++;
+			next();
+		}
+		long fraction = 0;
+		int places = 0;
+		if (b == '.') {
+			next();
+			while (isDigit(b = peek())) {
+				next();
+				if (places < 2) {
+					fraction = fraction * 10 + (b - '0');
+					places++;
+				} else if (b != '0') {
+					throw error("amount finer than a cent");
+				}
+			}
+		}
+		if (digits == 0 && places == 0) {
+			if (negative) {
+				throw error("expected an amount");
+			}
+			return BillDataBean.NO_AMOUNT;
+		}
+		for (; places < 2; places++) {
+			fraction *= 10;
+		}
+		long cents = units * 100 + fraction;
+		return negative ? -cents : cents;
+	}
+
+	private int readInt() throws IOException {
+		boolean negative = peek() == '-';
+		if (negative) {
+			next();
+		}
+		long value = 0;
+		int digits = 0;
+		int b;
+		while (isDigit(b = peek())) {
+			value = value * 10 + (b - '0');
+			if (value > (long) Integer.MAX_VALUE + 1) {
+				throw error("id out of range");
+			}
+			digits++;
+			next();
+		}
+		if (digits == 0) {
+			throw error("expected an id");
+		}
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE) {
+			throw error("id out of range");
+		}
+		return (int) value;
+	}
+
+	/*
+	 * The name held in text. Input is usually grouped by biller, so a name that repeats the
+	 * previous one reuses its string.
+	 */
+	private String name(int length) {
+		if (this.lastName == null || !matches(this.lastNameBytes, this.text, length)) {
+			this.lastName = new String(this.text, 0, length, UTF8);
+			this.lastNameBytes = new byte[length];
+			System.arraycopy(this.text, 0, this.lastNameBytes, 0, length);
+		}
+		return this.lastName;
+	}
+
+	private int append(int length, int b) {
+		if (length == this.text.length) {
+			byte[] grown = new byte[length * 2];
+			System.arraycopy(this.text, 0, grown, 0, length);
+			this.text = grown;
+		}
+		this.text[length] = (byte) b;
+		return length + 1;
+	}
+
+	private static boolean matches(byte[] expected, byte[] bytes, int length) {
+		if (expected.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (expected[i] != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void expectLiteral(String literal) throws IOException {
+		for (int i = 0; i < literal.length(); i++) {
+			if (next() != literal.charAt(i)) {
+				throw error("expected " + literal);
+			}
+		}
+	}
+
+	private void expect(int expected) throws IOException {
+		int b = next();
+		if (b != expected) {
+			throw error("expected '" + (char) expected + "' but found " + describe(b));
+		}
+	}
+
+	private void endLine() throws IOException {
+		int b = peek();
+		if (b == '\r') {
+			next();
+			b = peek();
+		}
+		if (b == '\n') {
+			next();
+			this.line++;
+		} else if (b >= 0) {
+			throw error("unexpected " + describe(b));
+		}
+	}
+
+	private void skipLineBreaks() throws IOException {
+		int b;
+		while ((b = peek()) == '\r' || b == '\n' || b == ' ' || b == '\t') {
+			if (next() == '\n') {
+				this.line++;
+			}
+		}
+	}
+
+	private void skipSpaces() throws IOException {
+		int b;
+		while ((b = peek()) == ' ' || b == '\t') {
+			next();
+		}
+	}
+
+	private int peek() throws IOException {
+		if (this.position == this.limit && !fill()) {
+			return -1;
+		}
+		return this.buffer[this.position] & 0xff;
+	}
+
+	private int next() throws IOException {
+		int b = peek();
+		if (b >= 0) {
+			this.position++;
+		}
+		return b;
+	}
+
+	private boolean fill() throws IOException {
+		int count;
+		do {
+			count = this.in.read(this.buffer);
+		} while (count == 0);
+		if (count < 0) {
+			return false;
+		}
+		this.position = 0;
+		this.limit = count;
+		this.bytesRead += count;
+		return true;
+	}
+
+	private long consumed() {
+		return this.bytesRead - (this.limit - this.position);
+	}
+
+	private static boolean isDigit(int b) {
+		return b >= '0' && b <= '9';
+	}
+
+	private static String describe(int b) {
+		return b < 0 ? "end of input" : "'" + (char) b + "'";
+	}
+
+	private BillDbException error(String message) {
+		return new BillDbException("Line " + this.line + " of import: " + message, null);
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(UTF8);
+	}
+}
@@ -0,0 +1,49 @@
+package com.extensiblejava.bill;
+
+import java.util.*;
+
+/*
+ * One page of a customer's bills and the continuation token for the page after it. The token
+ * is opaque to callers; it records where the page ended so the next one can resume there
+ * without counting past the bills already shown.
+ */
+public class BillPage {
+	private List bills;
+	private String continuation;
+
+	public BillPage(List bills, String continuation) {
+		this.bills = bills;
+		this.continuation = continuation;
+	}
+
+	public List getBills() { return this.bills; }
+	public String getContinuation() { return this.continuation; }
+	public boolean hasMore() { return this.continuation != null; }
+
+	static String encode(Integer lastBillId) {
+		return Integer.toString(lastBillId.intValue(), 36);
+	}
+
+	/*
+	 * Whether continuation is a token this class issued, or none at all for the first page.
+	 */
+	public static boolean isValid(String continuation) {
+		try {
+			decode(continuation);
+			return true;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	static Integer decode(String continuation) {
+		if (continuation == null || continuation.length() == 0) {
+			return null;
+		}
+		try {
+			return Integer.valueOf(continuation, 36);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid continuation " + continuation);
+		}
+	}
+}
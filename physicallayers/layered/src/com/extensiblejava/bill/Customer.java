@@ -1,6 +1,7 @@
 package com.extensiblejava.bill;
 
 import java.util.*;
+import com.extensiblejava.bill.data.CustomerTotals;
 
 public class Customer {
 	private CustomerEntityLoader loader;
@@ -25,5 +26,22 @@ public class Customer {
 		return this.bills;
 	}
 
+	/*
+	 * Loads one page of bills. Unlike getBills() nothing is kept on the customer, so walking a
+	 * large account page by page holds only the current page in memory.
+	 */
+	public BillPage getBills(String continuation, int pageSize, String status) {
+		return loader.loadBills(continuation, pageSize, status);
+	}
+
+	/*
+	 * What the customer has been billed, audited and paid. The totals are kept by the store, so
+	 * this is current on every call and never loads the bills themselves.
+	 */
+	public CustomerTotals getTotals() {
+		return loader.loadTotals();
+	}
+
+	public Integer getCustId() { return this.custId; }
 	public Name getName() { return this.name; }
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package com.extensiblejava.bill;
 
 import java.util.List;
+import com.extensiblejava.bill.data.CustomerTotals;
 
 public interface CustomerEntityLoader {
 	public Customer loadCustomer();
 	public List loadBills();
+	public BillPage loadBills(String continuation, int pageSize, String status);
+	public CustomerTotals loadTotals();
 }
\ No newline at end of file
@@ -9,20 +9,52 @@ public class DefaultCustomerEntityLoader implements CustomerEntityLoader {
 	public DefaultCustomerEntityLoader(Integer custId) {
 		this.custId = custId;
 	}
+	//Returns null if there is no such customer.
 	public Customer loadCustomer() {
+		EntityCache cache = EntityCache.getInstance();
+		Customer cached = cache.getCustomer(this.custId);
+		if (cached != null) {
+			return cached;
+		}
 		CustomerDataBean customer = BillDb.getCustomer(custId);
-		return new Customer(this.custId, new Name(customer.getFirstName(), customer.getLastName()), this);
+		if (customer == null) {
+			return null;
+		}
+		return cache.putCustomer(this.custId, new Customer(this.custId, new Name(customer.getFirstName(), customer.getLastName()), this));
 	}
 
 	public List loadBills() {
 		Iterator billBeans = BillDb.getBills(this.custId).iterator();
 
+		EntityCache cache = EntityCache.getInstance();
 		ArrayList bills = new ArrayList();
 		while (billBeans.hasNext()) {
 			BillDataBean billBean = (BillDataBean) billBeans.next();
-			Bill b = new Bill(billBean);
-			bills.add(b);
+			bills.add(cache.getBill(billBean));
 		}
 		return bills;
 	}
+
+	public BillPage loadBills(String continuation, int pageSize, String status) {
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+		}
+		Integer afterBillId = BillPage.decode(continuation);
+		List billBeans = BillDb.getBills(this.custId, afterBillId, pageSize + 1, status);
+
+		EntityCache cache = EntityCache.getInstance();
+		ArrayList bills = new ArrayList(Math.min(pageSize, billBeans.size()));
+		for (int i = 0; i < billBeans.size() && i < pageSize; i++) {
+			bills.add(cache.getBill((BillDataBean) billBeans.get(i)));
+		}
+		String next = null;
+		if (billBeans.size() > pageSize) {
+			next = BillPage.encode(((BillDataBean) billBeans.get(pageSize - 1)).getBillId());
+		}
+		return new BillPage(bills, next);
+	}
+
+	public CustomerTotals loadTotals() {
+		return BillDb.getCustomerTotals(this.custId);
+	}
 }
\ No newline at end of file
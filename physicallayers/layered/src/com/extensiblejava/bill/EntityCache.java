@@ -0,0 +1,219 @@
+package com.extensiblejava.bill;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+import com.extensiblejava.bill.data.*;
+
+/*
+ * An identity map for Bill and Customer entities. Within the cache's bounds a bill id always
+ * resolves to the same Bill, so the customer page and the bill detail pages share one object
+ * per bill instead of wrapping the data bean again on every request. Each map is split into
+ * segments with their own LRU order so lookups for different ids rarely contend.
+ */
+public class EntityCache implements EntityCacheMBean {
+	private static final int SEGMENTS = 16;
+	private static EntityCache instance;
+
+	private LruSegment[] billSegments;
+	private LruSegment[] customerSegments;
+	private AtomicLong billHits = new AtomicLong();
+	private AtomicLong billMisses = new AtomicLong();
+	private AtomicLong customerHits = new AtomicLong();
+	private AtomicLong customerMisses = new AtomicLong();
+
+	public static synchronized EntityCache getInstance() {
+		if (instance == null) {
+			instance = new EntityCache(Integer.getInteger("billcache.size", 10000).intValue());
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName("com.extensiblejava.bill:type=EntityCache"));
+			} catch (Exception e) {
+				// the cache works the same without its statistics being published
+			}
+		}
+		return instance;
+	}
+
+	public EntityCache(int maxEntries) {
+		int perSegment = Math.max(1, maxEntries / SEGMENTS);
+		this.billSegments = new LruSegment[SEGMENTS];
+		this.customerSegments = new LruSegment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.billSegments[i] = new LruSegment(perSegment);
+			this.customerSegments[i] = new LruSegment(perSegment);
+		}
+	}
+
+	/*
+	 * Returns the cached Bill for billId, loading and caching it on a miss. Returns null if
+	 * there is no such bill. A bill invalidated while it was being loaded is returned but not
+	 * cached, since what was loaded may predate the change.
+	 */
+	public Bill getBill(Integer billId) {
+		LruSegment segment = segmentFor(this.billSegments, billId);
+		Bill bill = (Bill) segment.get(billId);
+		if (bill != null) {
+			this.billHits.incrementAndGet();
+			return bill;
+		}
+		this.billMisses.incrementAndGet();
+		long generation = segment.getGeneration();
+		BillDataBean billBean = BillDb.getBill(billId);
+		if (billBean == null) {
+			return null;
+		}
+		return segment.putBill(billId, new Bill(billBean), generation);
+	}
+
+	/*
+	 * Returns the cached Bill for an already loaded data bean, wrapping the bean only if the
+	 * bill is not cached yet or the cached Bill is an older version.
+	 */
+	public Bill getBill(BillDataBean billBean) {
+		LruSegment segment = segmentFor(this.billSegments, billBean.getBillId());
+		Bill bill = (Bill) segment.get(billBean.getBillId());
+		if (bill != null && bill.getVersion() >= billBean.getVersion()) {
+			this.billHits.incrementAndGet();
+			return bill;
+		}
+		this.billMisses.incrementAndGet();
+		return segment.putBill(billBean.getBillId(), new Bill(billBean), segment.getGeneration());
+	}
+
+	public Customer getCustomer(Integer custId) {
+		Customer customer = (Customer) segmentFor(this.customerSegments, custId).get(custId);
+		if (customer != null) {
+			this.customerHits.incrementAndGet();
+		} else {
+			this.customerMisses.incrementAndGet();
+		}
+		return customer;
+	}
+
+	public Customer putCustomer(Integer custId, Customer customer) {
+		return (Customer) segmentFor(this.customerSegments, custId).putIfAbsent(custId, customer);
+	}
+
+	/*
+	 * Called once a bill has been persisted. The bill becomes the cached instance for its id,
+	 * and its customer is dropped so the next customer page rebuilds the bill list, reusing
+	 * the cached bills, rather than showing one that predates the change.
+	 */
+	void billPersisted(Integer billId, Integer custId, Bill bill) {
+		LruSegment segment = segmentFor(this.billSegments, billId);
+		segment.putBill(billId, bill, segment.getGeneration());
+		segmentFor(this.customerSegments, custId).remove(custId);
+	}
+
+	public void invalidateBill(Integer billId) {
+		segmentFor(this.billSegments, billId).remove(billId);
+	}
+
+	public void invalidateCustomer(Integer custId) {
+		segmentFor(this.customerSegments, custId).remove(custId);
+	}
+
+	public void clear() {
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.billSegments[i].clear();
+			this.customerSegments[i].clear();
+		}
+	}
+
+	public long getBillHits() { return this.billHits.get(); }
+	public long getBillMisses() { return this.billMisses.get(); }
+	public long getCustomerHits() { return this.customerHits.get(); }
+	public long getCustomerMisses() { return this.customerMisses.get(); }
+	public double getBillHitRate() { return hitRate(this.billHits.get(), this.billMisses.get()); }
+	public double getCustomerHitRate() { return hitRate(this.customerHits.get(), this.customerMisses.get()); }
+
+	public int getBillCount() {
+		int count = 0;
+		for (int i = 0; i < SEGMENTS; i++) {
+			count += this.billSegments[i].size();
+		}
+		return count;
+	}
+
+	public int getCustomerCount() {
+		int count = 0;
+		for (int i = 0; i < SEGMENTS; i++) {
+			count += this.customerSegments[i].size();
+		}
+		return count;
+	}
+
+	private static double hitRate(long hits, long misses) {
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+	private static LruSegment segmentFor(LruSegment[] segments, Integer id) {
+		return segments[(id.hashCode() & 0x7fffffff) % SEGMENTS];
+	}
+
+	/*
+	 * The generation counts removals, so a loader can tell whether an entry was invalidated
+	 * between reading the store and caching what it read.
+	 */
+	private static class LruSegment {
+		private LinkedHashMap entries;
+		private long generation;
+
+		LruSegment(final int maxEntries) {
+			this.entries = new LinkedHashMap(16, 0.75f, true) {
+				protected boolean removeEldestEntry(Map.Entry eldest) {
+					return size() > maxEntries;
+				}
+			};
+		}
+
+		synchronized Object get(Object key) {
+			return this.entries.get(key);
+		}
+
+		synchronized Object putIfAbsent(Object key, Object value) {
+			Object existing = this.entries.get(key);
+			if (existing != null) {
+				return existing;
+			}
+			this.entries.put(key, value);
+			return value;
+		}
+
+		/*
+		 * Caches bill unless a later or the same version is cached already, which is returned
+		 * instead, or unless anything was removed since generation, when bill is returned
+		 * uncached.
+		 */
+		synchronized Bill putBill(Object key, Bill bill, long generation) {
+			Bill existing = (Bill) this.entries.get(key);
+			if (existing != null && existing.getVersion() >= bill.getVersion()) {
+				return existing;
+			}
+			if (generation == this.generation) {
+				this.entries.put(key, bill);
+			}
+			return bill;
+		}
+
+		synchronized long getGeneration() {
+			return this.generation;
+		}
+
+		synchronized void remove(Object key) {
+			this.entries.remove(key);
+			this.generation++;
+		}
+
+		synchronized void clear() {
+			this.entries.clear();
+			this.generation++;
+		}
+
+		synchronized int size() {
+			return this.entries.size();
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package com.extensiblejava.bill;
+
+public interface EntityCacheMBean {
+	public long getBillHits();
+	public long getBillMisses();
+	public long getCustomerHits();
+	public long getCustomerMisses();
+	public double getBillHitRate();
+	public double getCustomerHitRate();
+	public int getBillCount();
+	public int getCustomerCount();
+	public void clear();
+}
@@ -0,0 +1,5 @@
+package com.extensiblejava.bill;
+
+public interface ImportProgress {
+	public void batchImported(long imported, long skipped, long bytesRead);
+}
@@ -2,32 +2,118 @@ package com.extensiblejava.bill.data;
 
 import java.math.*;
 
+/*
+ * Held compactly, since the store keeps every bill resident: ids are primitives, names are
+ * interned, and amounts are whole cents with NO_AMOUNT standing in for null. The BigDecimal
+ * accessors build their value on each call.
+ */
 public class BillDataBean {
-	private Integer billId;
-	private Integer custId;
+	public static final String NEW = "NEW";
+	public static final String AUDITED = "AUDITED";
+	public static final String PAID = "PAID";
+	public static final long NO_AMOUNT = Long.MIN_VALUE;
+
+	private int billId;
+	private int custId;
 	private String name;
-	private BigDecimal amount;
-	private BigDecimal auditedAmount;
-	private BigDecimal paidAmount;
+	private long amountCents;
+	private long auditedCents;
+	private long paidCents;
+	private long version;
+	private volatile boolean published;
 
 	public BillDataBean(Integer billId, Integer custId, String name, BigDecimal amount,
 						BigDecimal auditedAmount, BigDecimal paidAmount) {
+		this(billId, custId, name, amount, auditedAmount, paidAmount, 0);
+	}
+
+	public BillDataBean(Integer billId, Integer custId, String name, BigDecimal amount,
+						BigDecimal auditedAmount, BigDecimal paidAmount, long version) {
+		this(billId.intValue(), custId.intValue(), name, toCents(amount), toCents(auditedAmount), toCents(paidAmount), version);
+	}
+
+	/*
+	 * Takes the amounts in cents, NO_AMOUNT for none, for loaders that never build a BigDecimal.
+	 */
+	public BillDataBean(int billId, int custId, String name, long amountCents,
+						long auditedCents, long paidCents, long version) {
+		this.version = version;
 		this.billId = billId;
 		this.custId = custId;
-		this.name = name;
-		this.amount = amount;
-		this.auditedAmount = auditedAmount;
-		this.paidAmount = paidAmount;
+		this.name = intern(name);
+		this.amountCents = amountCents;
+		this.auditedCents = auditedCents;
+		this.paidCents = paidCents;
 	}
 
-	public Integer getBillId() { return this.billId; }
+	public Integer getBillId() { return Integer.valueOf(this.billId); }
+	public Integer getCustId() { return Integer.valueOf(this.custId); }
 	public String getName() { return this.name; }
-	public BigDecimal getAmount() { return this.amount; }
-	public BigDecimal getAuditedAmount() { return this.auditedAmount; }
-	public BigDecimal getPaidAmount() { return this.paidAmount; }
-
-	public void setName(String name) {this.name = name;}
-	public void setAmount(BigDecimal amount) {this.amount = amount;}
-	public void setAuditedAmount(BigDecimal auditedAmount) { this.auditedAmount = auditedAmount; }
-	public void setPaidAmount(BigDecimal paidAmount) { this.paidAmount = paidAmount; }
+	public BigDecimal getAmount() { return toDecimal(this.amountCents); }
+	public BigDecimal getAuditedAmount() { return toDecimal(this.auditedCents); }
+	public BigDecimal getPaidAmount() { return toDecimal(this.paidCents); }
+	public long getAmountCents() { return this.amountCents; }
+	public long getAuditedCents() { return this.auditedCents; }
+	public long getPaidCents() { return this.paidCents; }
+	public long getVersion() { return this.version; }
+	int billId() { return this.billId; }
+	int custId() { return this.custId; }
+	public String getStatus() {
+		if (this.paidCents != NO_AMOUNT) {
+			return PAID;
+		} else if (this.auditedCents != NO_AMOUNT) {
+			return AUDITED;
+		} else {
+			return NEW;
+		}
+	}
+
+	/*
+	 * Returns a copy stamped with the following version, for changing and then storing with
+	 * BillDb.compareAndSet.
+	 */
+	public BillDataBean nextVersion() {
+		return new BillDataBean(this.billId, this.custId, this.name, this.amountCents, this.auditedCents, this.paidCents, this.version + 1);
+	}
+
+	public void setName(String name) { checkUnpublished(); this.name = intern(name); }
+	public void setAmount(BigDecimal amount) { checkUnpublished(); this.amountCents = toCents(amount); }
+	public void setAuditedAmount(BigDecimal auditedAmount) { checkUnpublished(); this.auditedCents = toCents(auditedAmount); }
+	public void setPaidAmount(BigDecimal paidAmount) { checkUnpublished(); this.paidCents = toCents(paidAmount); }
+
+	/*
+	 * Called by the store as it makes this bean the visible version of its bill. Readers may
+	 * hold it from then on, so it can no longer change.
+	 */
+	void publish() {
+		this.published = true;
+	}
+
+	/*
+	 * Amounts are kept to the cent, so one with a finer fraction is rejected rather than rounded.
+	 */
+	static long toCents(BigDecimal amount) {
+		if (amount == null) {
+			return NO_AMOUNT;
+		}
+		long cents = amount.setScale(2, BigDecimal.ROUND_UNNECESSARY).unscaledValue().longValueExact();
+		if (cents == NO_AMOUNT) {
+			throw new ArithmeticException("Amount out of range: " + amount);
+		}
+		return cents;
+	}
+
+	private static BigDecimal toDecimal(long cents) {
+		return cents == NO_AMOUNT ? null : BigDecimal.valueOf(cents, 2);
+	}
+
+	private static String intern(String name) {
+		return name == null ? null : name.intern();
+	}
+
+	private void checkUnpublished() {
+		if (this.published) {
+			throw new IllegalStateException("Bill " + this.billId + " version " + this.version + " is published; change its nextVersion() instead");
+		}
+	}
 }
\ No newline at end of file
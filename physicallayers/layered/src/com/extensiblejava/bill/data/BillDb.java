@@ -1,42 +1,155 @@
 package com.extensiblejava.bill.data;
 
+import java.io.*;
 import java.math.*;
 import java.util.*;
 
 public class BillDb {
 
-	private static CustomerDataBean custBean;
-	private static TreeMap billBeans;
+	private static volatile BillStore store;
+	private static BillEventRing events = new BillEventRing(Integer.getInteger("billdb.events", 65536).intValue());
 
 	static {
-		custBean = new CustomerDataBean(new Integer(1), "Sue", "Smith");
-		BillDataBean billBean1 = new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null);
-		BillDataBean billBean2 = new BillDataBean(new Integer(2), new Integer(1), "TWO", new BigDecimal("50.00"), null, null);
-		BillDataBean billBean3 = new BillDataBean(new Integer(3), new Integer(1), "THREE", new BigDecimal("75.00"), null, null);
-		BillDataBean billBean4 = new BillDataBean(new Integer(4), new Integer(1), "FOUR", new BigDecimal("100.00"), null, null);
-		BillDataBean billBean5 = new BillDataBean(new Integer(5), new Integer(1), "FIVE", new BigDecimal("1000.00"), null, null);
-		billBeans = new TreeMap();
-		billBeans.put(billBean1.getBillId(), billBean1);
-		billBeans.put(billBean2.getBillId(), billBean2);
-		billBeans.put(billBean3.getBillId(), billBean3);
-		billBeans.put(billBean4.getBillId(), billBean4);
-		billBeans.put(billBean5.getBillId(), billBean5);
+		String url = System.getProperty("billdb.url");
+		if (url != null) {
+			int connections = Integer.getInteger("billdb.connections", 8).intValue();
+			try {
+				store = new JdbcBillStore(new ConnectionPool(url, System.getProperty("billdb.user"), System.getProperty("billdb.password"), connections));
+			} catch (java.sql.SQLException e) {
+				throw new BillDbException("Unable to open bill database " + url, e);
+			}
+		} else {
+			MemoryBillStore memory = new MemoryBillStore();
+			memory.addCustomer(new CustomerDataBean(new Integer(1), "Sue", "Smith"));
+			memory.update(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null));
+			memory.update(new BillDataBean(new Integer(2), new Integer(1), "TWO", new BigDecimal("50.00"), null, null));
+			memory.update(new BillDataBean(new Integer(3), new Integer(1), "THREE", new BigDecimal("75.00"), null, null));
+			memory.update(new BillDataBean(new Integer(4), new Integer(1), "FOUR", new BigDecimal("100.00"), null, null));
+			memory.update(new BillDataBean(new Integer(5), new Integer(1), "FIVE", new BigDecimal("1000.00"), null, null));
+
+			String dir = System.getProperty("billdb.dir");
+			if (dir != null) {
+				try {
+					memory.open(new File(dir));
+				} catch (IOException e) {
+					throw new BillDbException("Unable to recover bills from " + dir, e);
+				}
+			}
+			store = memory;
+		}
+	}
+
+	public static BillStore getStore() {
+		return store;
+	}
+
+	public static void setStore(BillStore billStore) {
+		store = billStore;
+	}
+
+	/*
+	 * Every bill version stored through BillDb is published here once it is stored.
+	 */
+	public static BillEventRing getEvents() {
+		return events;
+	}
+
+	public static void addCustomer(CustomerDataBean customer) {
+		store.addCustomer(customer);
 	}
 
 	public static CustomerDataBean getCustomer(Integer custId) {
-		return custBean;
+		return store.getCustomer(custId);
 	}
 
 	public static Collection getBills(Integer custId) {
-		return billBeans.values();
+		return store.getBills(custId);
+	}
+
+	/*
+	 * Returns up to limit of the customer's bills, in bill id order, starting after afterBillId
+	 * (or from the first bill when it is null) and keeping only those in the given status
+	 * (or every status when it is null).
+	 */
+	public static List getBills(Integer custId, Integer afterBillId, int limit, String status) {
+		return store.getBills(custId, afterBillId, limit, status);
 	}
 
 	public static BillDataBean getBill(Integer billId) {
-		return (BillDataBean) billBeans.get(billId);
+		return store.getBill(billId);
+	}
+
+	/*
+	 * The customer's totals across all of their bills, kept up to date as bills are written.
+	 */
+	public static CustomerTotals getCustomerTotals(Integer custId) {
+		return store.getCustomerTotals(custId);
+	}
+
+	public static int countBills(String status) {
+		return store.countBills(status);
+	}
+
+	/*
+	 * Streams every bill currently in the given status, across all customers.
+	 */
+	public static Iterator getBillsByStatus(String status) {
+		return store.getBillsByStatus(status);
 	}
 
 	public static void update(BillDataBean bean) {
-		billBeans.put(bean.getBillId(), bean);
+		store.update(bean);
+		events.publish(bean);
+	}
+
+	public static void updateAll(Collection beans) {
+		store.updateAll(beans);
+		publishAll(beans, Collections.EMPTY_LIST);
+	}
+
+	/*
+	 * Stores bean only if the stored bill is still at the version bean was copied from, that
+	 * is one less than bean's own version, or if there is no stored bill and bean is the first
+	 * version. Returns false on a conflict, leaving the stored bill alone.
+	 */
+	public static boolean compareAndSet(BillDataBean bean) {
+		if (!store.compareAndSet(bean)) {
+			return false;
+		}
+		events.publish(bean);
+		return true;
+	}
+
+	/*
+	 * compareAndSet for each bean, each bill succeeding or failing on its own. Returns the beans
+	 * that conflicted.
+	 */
+	public static List compareAndSetAll(Collection beans) {
+		List conflicts = store.compareAndSetAll(beans);
+		publishAll(beans, conflicts);
+		return conflicts;
+	}
+
+	/*
+	 * Stores each bean whose bill does not exist yet and leaves every existing bill alone,
+	 * whatever its version or customer. Returns the beans that were skipped.
+	 */
+	public static List insertAll(Collection beans) {
+		List skipped = store.insertAll(beans);
+		publishAll(beans, skipped);
+		return skipped;
+	}
+
+	private static void publishAll(Collection beans, List conflicts) {
+		// beans compare by identity, so this picks out exactly the conflicting instances
+		Set skipped = conflicts.isEmpty() ? Collections.EMPTY_SET : new HashSet(conflicts);
+		Iterator iterator = beans.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			if (!skipped.contains(bean)) {
+				events.publish(bean);
+			}
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,7 @@
+package com.extensiblejava.bill.data;
+
+public class BillDbException extends RuntimeException {
+	public BillDbException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
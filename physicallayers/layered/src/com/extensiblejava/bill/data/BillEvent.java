@@ -0,0 +1,20 @@
+package com.extensiblejava.bill.data;
+
+/*
+ * A bill version that has just been stored, numbered in the order it was published. Events
+ * for one bill published from different threads may arrive out of order; the bill's version
+ * tells which is the later state.
+ */
+public class BillEvent {
+	private long sequence;
+	private BillDataBean bill;
+
+	BillEvent(long sequence, BillDataBean bill) {
+		this.sequence = sequence;
+		this.bill = bill;
+	}
+
+	public long getSequence() { return this.sequence; }
+	public BillDataBean getBill() { return this.bill; }
+	public String getStatus() { return this.bill.getStatus(); }
+}
@@ -0,0 +1,7 @@
+package com.extensiblejava.bill.data;
+
+import java.util.List;
+
+public interface BillEventHandler {
+	public void onEvents(List events);
+}
@@ -0,0 +1,253 @@
+package com.extensiblejava.bill.data;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/*
+ * Fans bill change events out to any number of consumers through one bounded ring. Publishers
+ * claim a sequence with a single atomic increment and write the event into its slot; nothing
+ * is locked and nothing is copied per consumer. Each consumer runs on its own thread, keeps
+ * its own sequence, and takes every event that has arrived since its last read as one batch.
+ *
+ * A BLOCK consumer sees every event: a publisher about to overwrite an event the consumer has
+ * not read yet waits for it, so a slow BLOCK consumer holds back the writers. Such a publisher
+ * sleeps until a BLOCK consumer reads on or goes away, rather than spinning. A DROP consumer
+ * never holds anyone back; if it falls a whole ring behind, it skips to the oldest event still
+ * in the ring and counts what it missed. With no consumers publishing does nothing.
+ */
+public class BillEventRing {
+	public static final int BLOCK = 0;
+	public static final int DROP = 1;
+
+	private static final Consumer[] NO_CONSUMERS = new Consumer[0];
+
+	private int capacity;
+	private int mask;
+	private AtomicReferenceArray entries;
+	private AtomicLongArray published;
+	private AtomicLong next = new AtomicLong();
+	private volatile Consumer[] consumers = NO_CONSUMERS;
+	private Object wrapLock = new Object();
+	private AtomicInteger waitingPublishers = new AtomicInteger();
+
+	public BillEventRing(int capacity) {
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Ring capacity must be a power of two: " + capacity);
+		}
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.entries = new AtomicReferenceArray(capacity);
+		this.published = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			this.published.set(i, -1);
+		}
+	}
+
+	/*
+	 * Publishes the bill's new state and returns the event's sequence, or -1 if nobody is
+	 * consuming.
+	 */
+	public long publish(BillDataBean bill) {
+		Consumer[] current = this.consumers;
+		if (current.length == 0) {
+			return -1;
+		}
+		long sequence = this.next.getAndIncrement();
+		long wrapPoint = sequence - this.capacity;
+		if (wrapPoint >= blockingSequence()) {
+			awaitWrap(wrapPoint);
+		}
+		int index = (int) (sequence & this.mask);
+		this.entries.set(index, new BillEvent(sequence, bill));
+		this.published.set(index, sequence);
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].waiting) {
+				LockSupport.unpark(current[i].thread);
+			}
+		}
+		return sequence;
+	}
+
+	/*
+	 * Starts a consumer that receives every event published from now on, in batches of at most
+	 * maxBatch, on a thread of its own.
+	 */
+	public synchronized Consumer subscribe(String name, BillEventHandler handler, int policy, int maxBatch) {
+		if (policy != BLOCK && policy != DROP) {
+			throw new IllegalArgumentException("Unknown consumer policy: " + policy);
+		}
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException("Batch size must be positive: " + maxBatch);
+		}
+		Consumer consumer = new Consumer(name, handler, policy, maxBatch, this.next.get());
+		Consumer[] grown = new Consumer[this.consumers.length + 1];
+		System.arraycopy(this.consumers, 0, grown, 0, this.consumers.length);
+		grown[this.consumers.length] = consumer;
+		this.consumers = grown;
+		consumer.thread.start();
+		return consumer;
+	}
+
+	private void unsubscribe(Consumer consumer) {
+		synchronized (this) {
+			ArrayList remaining = new ArrayList(Arrays.asList(this.consumers));
+			remaining.remove(consumer);
+			this.consumers = (Consumer[]) remaining.toArray(NO_CONSUMERS);
+		}
+		releasePublishers();
+	}
+
+	/*
+	 * Waits until no BLOCK consumer still has to read the event at wrapPoint. A publisher
+	 * counts itself as waiting before it checks, and a consumer moves its sequence before it
+	 * looks for waiters, so one of the two always sees the other.
+	 */
+	private void awaitWrap(long wrapPoint) {
+		boolean interrupted = false;
+		this.waitingPublishers.incrementAndGet();
+		try {
+			synchronized (this.wrapLock) {
+				while (wrapPoint >= blockingSequence()) {
+					try {
+						this.wrapLock.wait();
+					} catch (InterruptedException e) {
+						// the event is already claimed, so it has to be published
+						interrupted = true;
+					}
+				}
+			}
+		} finally {
+			this.waitingPublishers.decrementAndGet();
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void releasePublishers() {
+		if (this.waitingPublishers.get() > 0) {
+			synchronized (this.wrapLock) {
+				this.wrapLock.notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * The lowest sequence a BLOCK consumer has yet to read; publishers may not overwrite it.
+	 */
+	private long blockingSequence() {
+		Consumer[] current = this.consumers;
+		long lowest = Long.MAX_VALUE;
+		for (int i = 0; i < current.length; i++) {
+			if (current[i].policy == BLOCK) {
+				lowest = Math.min(lowest, current[i].sequence);
+			}
+		}
+		return lowest;
+	}
+
+	public class Consumer implements Runnable {
+		private String name;
+		private BillEventHandler handler;
+		private int policy;
+		private int maxBatch;
+		private Thread thread;
+		private volatile long sequence;
+		private volatile boolean waiting;
+		private volatile boolean closed;
+		private AtomicLong dropped = new AtomicLong();
+		private AtomicLong failures = new AtomicLong();
+
+		Consumer(String name, BillEventHandler handler, int policy, int maxBatch, long sequence) {
+			this.name = name;
+			this.handler = handler;
+			this.policy = policy;
+			this.maxBatch = maxBatch;
+			this.sequence = sequence;
+			this.thread = new Thread(this, "BillEvent consumer " + name);
+			this.thread.setDaemon(true);
+		}
+
+		/*
+		 * However the loop ends the consumer is unsubscribed, so a BLOCK consumer whose thread
+		 * is gone never holds back publishers.
+		 */
+		public void run() {
+			try {
+				while (!this.closed) {
+					ArrayList batch = read();
+					if (batch.isEmpty()) {
+						this.waiting = true;
+						if (!available() && !this.closed) {
+							LockSupport.parkNanos(this, 10L * 1000 * 1000);
+						}
+						this.waiting = false;
+						continue;
+					}
+					try {
+						this.handler.onEvents(batch);
+					} catch (Throwable t) {
+						// one bad batch must not stop the events that follow it
+						this.failures.incrementAndGet();
+					}
+				}
+			} finally {
+				this.closed = true;
+				unsubscribe(this);
+			}
+		}
+
+		/*
+		 * Takes what has been published since the last read and moves the sequence past it,
+		 * which frees those slots for publishers before the batch is handled.
+		 */
+		private ArrayList read() {
+			ArrayList batch = new ArrayList();
+			long position = this.sequence;
+			while (batch.size() < this.maxBatch) {
+				int index = (int) (position & mask);
+				long slot = published.get(index);
+				if (slot < position) {
+					break;
+				}
+				// the slot's event is written before its sequence, so it is this one or a later one
+				BillEvent event = (BillEvent) entries.get(index);
+				if (event.getSequence() == position) {
+					batch.add(event);
+					position++;
+					continue;
+				}
+				// a DROP consumer a whole ring behind: what it had not read is gone
+				long oldest = Math.max(position + 1, next.get() - capacity);
+				this.dropped.addAndGet(oldest - position);
+				position = oldest;
+			}
+			this.sequence = position;
+			if (this.policy == BLOCK) {
+				releasePublishers();
+			}
+			return batch;
+		}
+
+		private boolean available() {
+			long position = this.sequence;
+			return published.get((int) (position & mask)) >= position;
+		}
+
+		/*
+		 * Stops the consumer once its current batch is handled. A BLOCK consumer stops holding
+		 * back publishers straight away.
+		 */
+		public void close() {
+			this.closed = true;
+			unsubscribe(this);
+			LockSupport.unpark(this.thread);
+		}
+
+		public String getName() { return this.name; }
+		public long getSequence() { return this.sequence; }
+		public long getDropped() { return this.dropped.get(); }
+		public long getFailures() { return this.failures.get(); }
+	}
+}
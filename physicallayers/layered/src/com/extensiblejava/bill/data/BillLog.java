@@ -0,0 +1,474 @@
+package com.extensiblejava.bill.data;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.logging.*;
+import java.util.zip.*;
+
+/*
+ * An append only log of bill and customer mutations. Each record is the full state of a bill
+ * or customer, framed as [length][crc32][payload], so replaying a record twice is harmless and
+ * a torn tail is easy to spot. Records are written ahead: a change is applied to the store
+ * only once its record is durable. Appends are group committed: callers add their record to a shared buffer and a
+ * single flusher thread writes and forces whatever has accumulated, so one fsync covers every
+ * caller that arrived while the previous one was in flight.
+ *
+ * Once a log segment grows past the snapshot threshold the flusher rolls to a new segment and
+ * a snapshot is written beside it by compacting the previous snapshot and every segment before
+ * the new one. Those files are complete and no longer written, so the snapshot never waits on
+ * writers, and loading it and replaying the new segment always ends in the right state.
+ */
+public class BillLog {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String LOG_SUFFIX = ".log";
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+	private static final int BILL = 1;
+	private static final int CUSTOMER = 2;
+	private static final Logger logger = Logger.getLogger(BillLog.class.getName());
+
+	private File dir;
+	private int syncBatchSize;
+	private long syncIntervalMillis;
+	private long snapshotThreshold;
+
+	private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+	private ByteBuffer flushing = ByteBuffer.allocate(64 * 1024);
+	private int pendingRecords;
+	private long appendedSeq;
+	private long durableSeq;
+	private IOException failure;
+	private boolean closed;
+
+	private FileChannel channel;
+	private long generation;
+	private long segmentBytes;
+	private Thread flusher;
+	private Thread snapshotter;
+
+	public BillLog(File dir, int syncBatchSize, long syncIntervalMillis, long snapshotThreshold) {
+		this.dir = dir;
+		this.syncBatchSize = syncBatchSize;
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.snapshotThreshold = snapshotThreshold;
+	}
+
+	public Collection recover() throws IOException {
+		return recover(new HashMap());
+	}
+
+	/*
+	 * Loads the newest snapshot and replays every later segment, truncating a torn record at the
+	 * end of the last segment; a bad record in any earlier one means the log is corrupt. Fills in
+	 * the recovered customers by id and returns the recovered bills, latest state only.
+	 */
+	public Collection recover(Map customers) throws IOException {
+		this.dir.mkdirs();
+		File[] files = this.dir.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(".tmp")) {
+				files[i].delete();
+			}
+		}
+		Map bills = new HashMap();
+		this.generation = load(Long.MAX_VALUE, bills, customers, true) + 1;
+		return bills.values();
+	}
+
+	/*
+	 * Reads the newest snapshot older than the given generation and replays the segments from
+	 * there up to that generation. Returns the last generation read.
+	 */
+	private long load(long before, Map bills, Map customers, boolean truncateTail) throws IOException {
+		long snapshotGeneration = -1;
+		TreeSet segments = new TreeSet();
+		File[] files = this.dir.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if (name.endsWith(SNAPSHOT_SUFFIX) && generationOf(name, SNAPSHOT_SUFFIX) < before) {
+				snapshotGeneration = Math.max(snapshotGeneration, generationOf(name, SNAPSHOT_SUFFIX));
+			} else if (name.endsWith(LOG_SUFFIX) && generationOf(name, LOG_SUFFIX) < before) {
+				segments.add(Long.valueOf(generationOf(name, LOG_SUFFIX)));
+			}
+		}
+
+		if (snapshotGeneration >= 0) {
+			File snapshotFile = file(snapshotGeneration, SNAPSHOT_SUFFIX);
+			if (readRecords(snapshotFile, bills, customers) != snapshotFile.length()) {
+				throw new IOException("Corrupt bill snapshot " + snapshotFile);
+			}
+		}
+		long lastGeneration = Math.max(snapshotGeneration, 0);
+		Iterator iterator = segments.tailSet(Long.valueOf(lastGeneration)).iterator();
+		while (iterator.hasNext()) {
+			long segment = ((Long) iterator.next()).longValue();
+			File segmentFile = file(segment, LOG_SUFFIX);
+			long valid = readRecords(segmentFile, bills, customers);
+			if (valid < segmentFile.length()) {
+				// only the segment being written when the process stopped can end in a torn record
+				if (!truncateTail || iterator.hasNext()) {
+					throw new IOException("Corrupt bill log segment " + segmentFile + " at offset " + valid);
+				}
+				RandomAccessFile torn = new RandomAccessFile(segmentFile, "rw");
+				try {
+					torn.setLength(valid);
+				} finally {
+					torn.close();
+				}
+			}
+			lastGeneration = segment;
+		}
+		return lastGeneration;
+	}
+
+	/*
+	 * Opens a fresh segment and starts the flusher.
+	 */
+	public synchronized void start() throws IOException {
+		this.channel = openSegment(this.generation);
+		this.flusher = new Thread(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, "BillLog flusher");
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	/*
+	 * Adds the bill's current state to the log and returns its sequence number. The record is
+	 * not durable until awaitDurable returns for that sequence.
+	 */
+	public long append(BillDataBean bean) throws IOException {
+		return append(encode(bean));
+	}
+
+	public long append(CustomerDataBean customer) throws IOException {
+		return append(encode(customer));
+	}
+
+	private synchronized long append(byte[] payload) throws IOException {
+		if (this.failure != null) {
+			throw this.failure;
+		}
+		if (this.closed) {
+			throw new IOException("Bill log is closed");
+		}
+		ensureCapacity(payload.length + 8);
+		this.pending.putInt(payload.length);
+		this.pending.putInt(crc(payload));
+		this.pending.put(payload);
+		this.pendingRecords++;
+		this.appendedSeq++;
+		if (this.pendingRecords == 1 || this.pendingRecords >= this.syncBatchSize) {
+			notifyAll();
+		}
+		return this.appendedSeq;
+	}
+
+	public synchronized void awaitDurable(long seq) throws IOException {
+		while (this.durableSeq < seq) {
+			if (this.failure != null) {
+				throw this.failure;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for bill log");
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		Thread flusher;
+		Thread snapshotter;
+		synchronized (this) {
+			this.closed = true;
+			notifyAll();
+			flusher = this.flusher;
+			snapshotter = this.snapshotter;
+		}
+		try {
+			if (flusher != null) {
+				flusher.join();
+			}
+			if (snapshotter != null) {
+				snapshotter.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (this.channel != null) {
+				this.channel.close();
+			}
+			if (this.failure != null) {
+				throw this.failure;
+			}
+		}
+	}
+
+	private void flush() {
+		try {
+			while (true) {
+				long batchSeq;
+				boolean roll;
+				synchronized (this) {
+					while (this.pendingRecords == 0 && !this.closed) {
+						wait();
+					}
+					if (this.pendingRecords == 0) {
+						return;
+					}
+					long deadline = System.currentTimeMillis() + this.syncIntervalMillis;
+					long remaining = this.syncIntervalMillis;
+					while (this.pendingRecords < this.syncBatchSize && !this.closed && remaining > 0) {
+						wait(remaining);
+						remaining = deadline - System.currentTimeMillis();
+					}
+					ByteBuffer batch = this.pending;
+					this.pending = this.flushing;
+					this.flushing = batch;
+					this.pendingRecords = 0;
+					batchSeq = this.appendedSeq;
+				}
+
+				this.flushing.flip();
+				this.segmentBytes += this.flushing.remaining();
+				while (this.flushing.hasRemaining()) {
+					this.channel.write(this.flushing);
+				}
+				this.channel.force(false);
+				this.flushing.clear();
+				synchronized (this) {
+					roll = this.segmentBytes >= this.snapshotThreshold && this.snapshotter == null;
+				}
+				if (roll) {
+					roll();
+				}
+
+				synchronized (this) {
+					this.durableSeq = batchSeq;
+					notifyAll();
+				}
+			}
+		} catch (Exception e) {
+			synchronized (this) {
+				this.failure = e instanceof IOException ? (IOException) e : new IOException(e.toString());
+				notifyAll();
+			}
+		}
+	}
+
+	/*
+	 * Called on the flusher once the current segment has been forced. Nothing is written to the
+	 * segments before the new one again, so the snapshot compacts them in the background.
+	 */
+	private void roll() throws IOException {
+		this.channel.close();
+		final long snapshotGeneration = ++this.generation;
+		this.channel = openSegment(snapshotGeneration);
+		this.segmentBytes = 0;
+		synchronized (this) {
+			this.snapshotter = new Thread(new Runnable() {
+				public void run() {
+					snapshot(snapshotGeneration);
+				}
+			}, "BillLog snapshot");
+			this.snapshotter.setDaemon(true);
+			this.snapshotter.start();
+		}
+	}
+
+	private void snapshot(long snapshotGeneration) {
+		try {
+			Map bills = new HashMap();
+			Map customers = new HashMap();
+			load(snapshotGeneration, bills, customers, false);
+
+			File tmp = new File(this.dir, snapshotGeneration + SNAPSHOT_SUFFIX + ".tmp");
+			FileChannel out = new FileOutputStream(tmp).getChannel();
+			try {
+				ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+				Iterator records = customers.values().iterator();
+				while (records.hasNext()) {
+					buffer = writeRecord(out, buffer, encode((CustomerDataBean) records.next()));
+				}
+				records = bills.values().iterator();
+				while (records.hasNext()) {
+					buffer = writeRecord(out, buffer, encode((BillDataBean) records.next()));
+				}
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					out.write(buffer);
+				}
+				out.force(true);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), file(snapshotGeneration, SNAPSHOT_SUFFIX).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+			File[] files = this.dir.listFiles();
+			for (int i = 0; i < files.length; i++) {
+				String name = files[i].getName();
+				if ((name.endsWith(LOG_SUFFIX) && generationOf(name, LOG_SUFFIX) < snapshotGeneration)
+						|| (name.endsWith(SNAPSHOT_SUFFIX) && generationOf(name, SNAPSHOT_SUFFIX) < snapshotGeneration)) {
+					files[i].delete();
+				}
+			}
+		} catch (Exception e) {
+			// the segments the snapshot would have replaced are still there, so recovery is unaffected
+			logger.log(Level.WARNING, "Unable to write bill snapshot " + snapshotGeneration + " in " + this.dir, e);
+		} finally {
+			synchronized (this) {
+				this.snapshotter = null;
+			}
+		}
+	}
+
+	private static ByteBuffer writeRecord(FileChannel out, ByteBuffer buffer, byte[] payload) throws IOException {
+		if (buffer.remaining() < payload.length + 8) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			buffer.clear();
+			if (buffer.capacity() < payload.length + 8) {
+				buffer = ByteBuffer.allocate(payload.length + 8);
+			}
+		}
+		buffer.putInt(payload.length);
+		buffer.putInt(crc(payload));
+		buffer.put(payload);
+		return buffer;
+	}
+
+	private FileChannel openSegment(long segment) throws IOException {
+		FileChannel segmentChannel = new RandomAccessFile(file(segment, LOG_SUFFIX), "rw").getChannel();
+		segmentChannel.position(segmentChannel.size());
+		this.segmentBytes = segmentChannel.size();
+		return segmentChannel;
+	}
+
+	private void ensureCapacity(int needed) {
+		if (this.pending.remaining() < needed) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, this.pending.position() + needed));
+			this.pending.flip();
+			larger.put(this.pending);
+			this.pending = larger;
+		}
+	}
+
+	private File file(long segment, String suffix) {
+		return new File(this.dir, segment + suffix);
+	}
+
+	private static long generationOf(String name, String suffix) {
+		return Long.parseLong(name.substring(0, name.length() - suffix.length()));
+	}
+
+	/*
+	 * Reads every intact record from the file into bills and customers and returns the offset
+	 * just past the last one.
+	 */
+	private static long readRecords(File file, Map bills, Map customers) throws IOException {
+		FileChannel in = new FileInputStream(file).getChannel();
+		try {
+			ByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+			while (buffer.remaining() >= 8) {
+				int start = buffer.position();
+				int length = buffer.getInt();
+				int crc = buffer.getInt();
+				if (length < 0 || length > buffer.remaining()) {
+					return start;
+				}
+				byte[] payload = new byte[length];
+				buffer.get(payload);
+				if (crc(payload) != crc) {
+					return start;
+				}
+				decode(payload, bills, customers);
+			}
+			return buffer.position();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static int crc(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	static byte[] encode(BillDataBean bean) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(BILL);
+		out.writeInt(bean.billId());
+		out.writeInt(bean.custId());
+		writeString(out, bean.getName());
+		out.writeLong(bean.getAmountCents());
+		out.writeLong(bean.getAuditedCents());
+		out.writeLong(bean.getPaidCents());
+		out.writeLong(bean.getVersion());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static byte[] encode(CustomerDataBean customer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(CUSTOMER);
+		out.writeInt(customer.getId().intValue());
+		writeString(out, customer.getFirstName());
+		writeString(out, customer.getLastName());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	static void decode(byte[] payload, Map bills, Map customers) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		int type = in.readUnsignedByte();
+		if (type == CUSTOMER) {
+			Integer id = Integer.valueOf(in.readInt());
+			customers.put(id, new CustomerDataBean(id, readString(in), readString(in)));
+			return;
+		}
+		if (type != BILL) {
+			throw new IOException("Unknown bill log record type " + type);
+		}
+		int billId = in.readInt();
+		int custId = in.readInt();
+		String name = readString(in);
+		long amountCents = in.readLong();
+		long auditedCents = in.readLong();
+		long paidCents = in.readLong();
+		BillDataBean bean = new BillDataBean(billId, custId, name, amountCents, auditedCents, paidCents, in.readLong());
+		bills.put(bean.getBillId(), bean);
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+}
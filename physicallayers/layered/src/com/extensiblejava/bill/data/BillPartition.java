@@ -0,0 +1,317 @@
+package com.extensiblejava.bill.data;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/*
+ * The customers whose ids hash to one partition, along with the current version of each
+ * customer's bills, their totals and a status index over them. Only the partition's writer thread changes
+ * any of it: writers queue their bills and wait, the writer drains the queue one write at a
+ * time, and readers see whatever version the writer last published without taking a lock.
+ * A write is checked in full before any of it is applied, so it is applied whole or not at all.
+ *
+ * With a log, the writer takes every write queued so far, logs the ones that pass their checks
+ * and waits for one fsync to cover them all before applying any, so a change is never visible
+ * before it is durable.
+ */
+class BillPartition implements Runnable {
+	static final int OVERWRITE = 0;
+	static final int COMPARE = 1;
+	static final int INSERT = 2;
+
+	private ConcurrentHashMap customers = new ConcurrentHashMap();
+	private ConcurrentHashMap billsByCustomer = new ConcurrentHashMap();
+	private ConcurrentHashMap totalsByCustomer = new ConcurrentHashMap();
+	private StatusIndex statusIndex;
+	private ConcurrentHashMap billBeans;
+	private ConcurrentLinkedQueue writes = new ConcurrentLinkedQueue();
+	private Thread writer;
+	private volatile boolean closed;
+
+	BillPartition(ConcurrentHashMap billBeans, String name) {
+		this.billBeans = billBeans;
+		this.statusIndex = new StatusIndex(billBeans);
+		this.writer = new Thread(this, name);
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	CustomerDataBean getCustomer(Integer custId) {
+		return (CustomerDataBean) this.customers.get(custId);
+	}
+
+	/*
+	 * The customer's current bills. The collection is a published version, so it stays the same
+	 * however the customer's bills change afterwards.
+	 */
+	Collection getBills(Integer custId) {
+		CustomerBills bills = (CustomerBills) this.billsByCustomer.get(custId);
+		return bills == null ? CustomerBills.EMPTY : bills;
+	}
+
+	List getBills(Integer custId, Integer afterBillId, int limit, String status) {
+		ArrayList page = new ArrayList();
+		CustomerBills bills = (CustomerBills) this.billsByCustomer.get(custId);
+		if (bills == null) {
+			return page;
+		}
+		Iterator iterator = bills.iterator(afterBillId);
+		while (iterator.hasNext() && page.size() < limit) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			if (status == null || status.equals(bean.getStatus())) {
+				page.add(bean);
+			}
+		}
+		return page;
+	}
+
+	CustomerTotals getCustomerTotals(Integer custId) {
+		CustomerTotals totals = (CustomerTotals) this.totalsByCustomer.get(custId);
+		return totals == null ? CustomerTotals.EMPTY : totals;
+	}
+
+	int countBills(String status) {
+		return this.statusIndex.count(status);
+	}
+
+	Iterator getBillsByStatus(String status) {
+		return this.statusIndex.iterator(status);
+	}
+
+	/*
+	 * Queues the beans for the writer. The caller waits on the returned write, which holds the
+	 * conflicts once it is done.
+	 */
+	Write submit(Collection beans, int mode, BillLog log) {
+		return submit(new Write(beans, mode, log));
+	}
+
+	Write submit(CustomerDataBean customer, BillLog log) {
+		Write write = new Write(Collections.EMPTY_LIST, OVERWRITE, log);
+		write.customer = customer;
+		return submit(write);
+	}
+
+	private Write submit(Write write) {
+		this.writes.offer(write);
+		if (this.closed && this.writes.remove(write)) {
+			write.fail(new BillDbException("Bill store is closed", null));
+		}
+		LockSupport.unpark(this.writer);
+		return write;
+	}
+
+	/*
+	 * Stops the writer once the write in hand is done. Writes still queued fail.
+	 */
+	void close() {
+		this.closed = true;
+		LockSupport.unpark(this.writer);
+		boolean interrupted = false;
+		while (this.writer.isAlive()) {
+			try {
+				this.writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public void run() {
+		ArrayList batch = new ArrayList();
+		while (!this.closed) {
+			Write write;
+			while ((write = (Write) this.writes.poll()) != null) {
+				batch.add(write);
+			}
+			if (batch.isEmpty()) {
+				LockSupport.park(this);
+				continue;
+			}
+			commit(batch);
+			batch.clear();
+		}
+		Write write;
+		while ((write = (Write) this.writes.poll()) != null) {
+			write.fail(new BillDbException("Bill store is closed", null));
+		}
+	}
+
+	private void commit(List batch) {
+		HashMap staged = new HashMap();
+		ArrayList checked = new ArrayList(batch.size());
+		for (int i = 0; i < batch.size(); i++) {
+			Write write = (Write) batch.get(i);
+			try {
+				write.accepted = validate(write, staged);
+				checked.add(write);
+			} catch (Throwable t) {
+				// whatever went wrong, the writer carries on and the caller hears about it
+				write.fail(t);
+			}
+		}
+		try {
+			log(checked);
+		} catch (Throwable t) {
+			Throwable failure = t instanceof IOException ? new BillDbException("Unable to log " + checked.size() + " bill writes", t) : t;
+			for (int i = 0; i < checked.size(); i++) {
+				((Write) checked.get(i)).fail(failure);
+			}
+			return;
+		}
+		for (int i = 0; i < checked.size(); i++) {
+			Write write = (Write) checked.get(i);
+			try {
+				if (write.customer != null) {
+					this.customers.put(write.customer.getId(), write.customer);
+				}
+				Iterator iterator = write.accepted.iterator();
+				while (iterator.hasNext()) {
+					apply((BillDataBean) iterator.next());
+				}
+				write.done.countDown();
+			} catch (Throwable t) {
+				write.fail(t);
+			}
+		}
+	}
+
+	/*
+	 * Appends what the writes will change, in the order they will be applied, and returns once
+	 * all of it is durable.
+	 */
+	private void log(List writes) throws IOException {
+		IdentityHashMap lastSeqs = new IdentityHashMap();
+		for (int i = 0; i < writes.size(); i++) {
+			Write write = (Write) writes.get(i);
+			if (write.log == null) {
+				continue;
+			}
+			long seq = 0;
+			if (write.customer != null) {
+				seq = write.log.append(write.customer);
+			}
+			Iterator iterator = write.accepted.iterator();
+			while (iterator.hasNext()) {
+				seq = write.log.append((BillDataBean) iterator.next());
+			}
+			Long last = (Long) lastSeqs.get(write.log);
+			if (last == null || last.longValue() < seq) {
+				lastSeqs.put(write.log, Long.valueOf(seq));
+			}
+		}
+		Iterator logs = lastSeqs.entrySet().iterator();
+		while (logs.hasNext()) {
+			Map.Entry entry = (Map.Entry) logs.next();
+			((BillLog) entry.getKey()).awaitDurable(((Long) entry.getValue()).longValue());
+		}
+	}
+
+	/*
+	 * Checks every bean in the write against the bill it replaces, which may be an earlier bean
+	 * in the same write or in an earlier write of the batch, and returns those to apply. Beans with the wrong version are left as
+	 * conflicts in COMPARE mode, and beans for a bill that already exists in INSERT mode; a bean
+	 * that would move a bill to another customer rejects the whole write.
+	 */
+	private List validate(Write write, HashMap batchStaged) {
+		HashMap staged = new HashMap();
+		ArrayList accepted = new ArrayList(write.beans.size());
+		Iterator iterator = write.beans.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			Integer billId = bean.getBillId();
+			BillDataBean previous = (BillDataBean) staged.get(billId);
+			if (previous == null) {
+				previous = (BillDataBean) batchStaged.get(billId);
+			}
+			if (previous == null) {
+				previous = (BillDataBean) this.billBeans.get(billId);
+			}
+			if (write.mode == INSERT && previous != null) {
+				write.conflicts.add(bean);
+				continue;
+			}
+			if (write.mode == COMPARE) {
+				long expected = previous == null ? 0 : previous.getVersion();
+				if (bean.getVersion() != expected + 1) {
+					write.conflicts.add(bean);
+					continue;
+				}
+			}
+			if (previous != null && previous.custId() != bean.custId()) {
+				throw new IllegalArgumentException("Bill " + billId + " belongs to customer " + previous.getCustId());
+			}
+			staged.put(billId, bean);
+			accepted.add(bean);
+		}
+		batchStaged.putAll(staged);
+		return accepted;
+	}
+
+	private void apply(BillDataBean bean) {
+		Integer billId = bean.getBillId();
+		Integer custId = bean.getCustId();
+		BillDataBean previous = (BillDataBean) this.billBeans.get(billId);
+		bean.publish();
+		this.billBeans.put(billId, bean);
+		CustomerBills bills = (CustomerBills) this.billsByCustomer.get(custId);
+		this.billsByCustomer.put(custId, (bills == null ? CustomerBills.EMPTY : bills).with(bean));
+		this.totalsByCustomer.put(custId, getCustomerTotals(custId).replace(previous, bean));
+		this.statusIndex.update(bean);
+	}
+
+	static class Write {
+		private Collection beans;
+		private int mode;
+		private BillLog log;
+		private CustomerDataBean customer;
+		private List accepted;
+		private ArrayList conflicts = new ArrayList();
+		private Throwable failure;
+		private CountDownLatch done = new CountDownLatch(1);
+
+		Write(Collection beans, int mode, BillLog log) {
+			this.beans = beans;
+			this.mode = mode;
+			this.log = log;
+		}
+
+		/*
+		 * Waits for the writer and returns the conflicts, rethrowing anything the write failed with.
+		 */
+		List await() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					this.done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (this.failure instanceof RuntimeException) {
+				throw (RuntimeException) this.failure;
+			}
+			if (this.failure instanceof Error) {
+				throw (Error) this.failure;
+			}
+			if (this.failure != null) {
+				throw new BillDbException("Unable to store " + this.beans.size() + " bills", this.failure);
+			}
+			return this.conflicts;
+		}
+
+		void fail(Throwable failure) {
+			this.failure = failure;
+			this.done.countDown();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.extensiblejava.bill.data;
+
+import java.util.*;
+
+/*
+ * The operations BillDb hands off to whatever actually keeps the bills, so the entity loaders
+ * can stay on BillDb whether bills live in memory or in a database.
+ */
+public interface BillStore {
+	public void addCustomer(CustomerDataBean customer);
+	public CustomerDataBean getCustomer(Integer custId);
+	public Collection getBills(Integer custId);
+	public List getBills(Integer custId, Integer afterBillId, int limit, String status);
+	public BillDataBean getBill(Integer billId);
+	public CustomerTotals getCustomerTotals(Integer custId);
+	public int countBills(String status);
+	public Iterator getBillsByStatus(String status);
+	public void update(BillDataBean bean);
+	public void updateAll(Collection beans);
+	public boolean compareAndSet(BillDataBean bean);
+	public List compareAndSetAll(Collection beans);
+	public List insertAll(Collection beans);
+}
@@ -0,0 +1,96 @@
+package com.extensiblejava.bill.data;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * A fixed ceiling of JDBC connections handed out one request at a time. Each pooled
+ * connection keeps the statements prepared on it, so the handful of queries the bill store
+ * runs are parsed once per connection rather than once per request.
+ */
+public class ConnectionPool {
+	private String url;
+	private String user;
+	private String password;
+	private int maxConnections;
+	private Semaphore permits;
+	private ConcurrentLinkedQueue idle = new ConcurrentLinkedQueue();
+
+	public ConnectionPool(String url, String user, String password, int maxConnections) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxConnections = maxConnections;
+		this.permits = new Semaphore(maxConnections, true);
+	}
+
+	public PooledConnection borrow() throws SQLException {
+		try {
+			this.permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection");
+		}
+		PooledConnection connection = (PooledConnection) this.idle.poll();
+		if (connection != null) {
+			return connection;
+		}
+		try {
+			return new PooledConnection(DriverManager.getConnection(this.url, this.user, this.password));
+		} catch (SQLException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/*
+	 * Returns a connection to the pool. A connection that failed mid request is closed rather
+	 * than reused, since its transaction and statements are in an unknown state.
+	 */
+	public void release(PooledConnection connection, boolean broken) {
+		if (broken) {
+			connection.close();
+		} else {
+			this.idle.offer(connection);
+		}
+		this.permits.release();
+	}
+
+	public void close() {
+		PooledConnection connection;
+		while ((connection = (PooledConnection) this.idle.poll()) != null) {
+			connection.close();
+		}
+	}
+
+	public int getMaxConnections() { return this.maxConnections; }
+
+	public static class PooledConnection {
+		private Connection connection;
+		private HashMap statements = new HashMap();
+
+		PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		public Connection getConnection() { return this.connection; }
+
+		public PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement statement = (PreparedStatement) this.statements.get(sql);
+			if (statement == null) {
+				statement = this.connection.prepareStatement(sql);
+				this.statements.put(sql, statement);
+			}
+			return statement;
+		}
+
+		void close() {
+			try {
+				this.connection.close();
+			} catch (SQLException e) {
+				// nothing more to do with a connection we are discarding
+			}
+		}
+	}
+}
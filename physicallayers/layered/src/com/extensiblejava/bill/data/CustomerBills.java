@@ -0,0 +1,165 @@
+package com.extensiblejava.bill.data;
+
+import java.util.*;
+
+/*
+ * One published version of a customer's bills, in bill id order. A version never changes once
+ * published: a write builds the next version, copying only the chunk it touches and the chunk
+ * table, and sharing every other chunk. A reader that picked up a version therefore sees one
+ * consistent set of bills for as long as it holds it, without locking, and the version is
+ * garbage as soon as the last reader lets go of it.
+ */
+class CustomerBills extends AbstractCollection {
+	private static final int MAX_CHUNK = 128;
+
+	static final CustomerBills EMPTY = new CustomerBills(new int[0], new BillDataBean[0][], 0);
+
+	private final int[] firstIds;
+	private final BillDataBean[][] chunks;
+	private final int size;
+
+	private CustomerBills(int[] firstIds, BillDataBean[][] chunks, int size) {
+		this.firstIds = firstIds;
+		this.chunks = chunks;
+		this.size = size;
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public Iterator iterator() {
+		return iterator(null);
+	}
+
+	/*
+	 * Iterates the bills whose ids follow afterBillId, or every bill when it is null.
+	 */
+	Iterator iterator(Integer afterBillId) {
+		int chunk = 0;
+		int position = 0;
+		if (afterBillId != null && this.chunks.length > 0) {
+			int id = afterBillId.intValue();
+			chunk = chunkFor(id);
+			position = search(this.chunks[chunk], id);
+			position = position >= 0 ? position + 1 : -position - 1;
+		}
+		final int startChunk = chunk;
+		final int startPosition = position;
+		return new Iterator() {
+			private int chunk = startChunk;
+			private int position = startPosition;
+
+			public boolean hasNext() {
+				while (this.chunk < chunks.length && this.position >= chunks[this.chunk].length) {
+					this.chunk++;
+					this.position = 0;
+				}
+				return this.chunk < chunks.length;
+			}
+
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return chunks[this.chunk][this.position++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/*
+	 * Returns the next version with bean added, or replacing the bill with the same id.
+	 */
+	CustomerBills with(BillDataBean bean) {
+		int id = bean.billId();
+		if (this.chunks.length == 0) {
+			return new CustomerBills(new int[] { id }, new BillDataBean[][] { { bean } }, 1);
+		}
+		int chunk = chunkFor(id);
+		BillDataBean[] bills = this.chunks[chunk];
+		int position = search(bills, id);
+		if (position >= 0) {
+			BillDataBean[] replaced = (BillDataBean[]) bills.clone();
+			replaced[position] = bean;
+			BillDataBean[][] nextChunks = (BillDataBean[][]) this.chunks.clone();
+			nextChunks[chunk] = replaced;
+			return new CustomerBills(this.firstIds, nextChunks, this.size);
+		}
+
+		position = -position - 1;
+		BillDataBean[] inserted = new BillDataBean[bills.length + 1];
+		System.arraycopy(bills, 0, inserted, 0, position);
+		inserted[position] = bean;
+		System.arraycopy(bills, position, inserted, position + 1, bills.length - position);
+		if (inserted.length <= MAX_CHUNK) {
+			BillDataBean[][] nextChunks = (BillDataBean[][]) this.chunks.clone();
+			nextChunks[chunk] = inserted;
+			int[] nextFirstIds = this.firstIds;
+			if (position == 0) {
+				nextFirstIds = (int[]) this.firstIds.clone();
+				nextFirstIds[chunk] = id;
+			}
+			return new CustomerBills(nextFirstIds, nextChunks, this.size + 1);
+		}
+
+		// a full chunk splits in two; appending at the end leaves the old chunk full and starts a
+		// new one, which keeps chunks packed when bills arrive in id order
+		int split = position == inserted.length - 1 ? MAX_CHUNK : inserted.length / 2;
+		BillDataBean[] left = new BillDataBean[split];
+		BillDataBean[] right = new BillDataBean[inserted.length - split];
+		System.arraycopy(inserted, 0, left, 0, left.length);
+		System.arraycopy(inserted, split, right, 0, right.length);
+		BillDataBean[][] nextChunks = new BillDataBean[this.chunks.length + 1][];
+		System.arraycopy(this.chunks, 0, nextChunks, 0, chunk);
+		nextChunks[chunk] = left;
+		nextChunks[chunk + 1] = right;
+		System.arraycopy(this.chunks, chunk + 1, nextChunks, chunk + 2, this.chunks.length - chunk - 1);
+		return new CustomerBills(firstIds(nextChunks), nextChunks, this.size + 1);
+	}
+
+	/*
+	 * The chunk that holds id, or would: the last chunk starting at or before it, else the first.
+	 */
+	private int chunkFor(int id) {
+		int low = 0;
+		int high = this.firstIds.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.firstIds[middle] <= id) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	private static int search(BillDataBean[] bills, int id) {
+		int low = 0;
+		int high = bills.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int middleId = bills[middle].billId();
+			if (middleId < id) {
+				low = middle + 1;
+			} else if (middleId > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int[] firstIds(BillDataBean[][] chunks) {
+		int[] firstIds = new int[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			firstIds[i] = chunks[i][0].billId();
+		}
+		return firstIds;
+	}
+}
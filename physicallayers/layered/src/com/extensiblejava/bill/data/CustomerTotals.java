@@ -0,0 +1,78 @@
+package com.extensiblejava.bill.data;
+
+import java.math.*;
+
+/*
+ * What a customer has been billed, audited and paid, in cents. A totals object is never
+ * changed; the store moves to a new one as each bill is written, by taking out what the
+ * previous version of the bill contributed and adding in the new version.
+ */
+public class CustomerTotals {
+	public static final CustomerTotals EMPTY = new CustomerTotals(0, 0, 0, 0, 0);
+
+	private int billCount;
+	private long billedCents;
+	private long auditedCents;
+	private long paidCents;
+	private long outstandingCents;
+
+	public CustomerTotals(int billCount, long billedCents, long auditedCents, long paidCents, long outstandingCents) {
+		this.billCount = billCount;
+		this.billedCents = billedCents;
+		this.auditedCents = auditedCents;
+		this.paidCents = paidCents;
+		this.outstandingCents = outstandingCents;
+	}
+
+	/*
+	 * The totals once previous, which may be null for a new bill, is replaced by bean.
+	 */
+	public CustomerTotals replace(BillDataBean previous, BillDataBean bean) {
+		int count = this.billCount + 1;
+		long billed = this.billedCents + cents(bean.getAmountCents());
+		long audited = this.auditedCents + cents(bean.getAuditedCents());
+		long paid = this.paidCents + cents(bean.getPaidCents());
+		long outstanding = this.outstandingCents + outstandingCents(bean);
+		if (previous != null) {
+			count--;
+			billed -= cents(previous.getAmountCents());
+			audited -= cents(previous.getAuditedCents());
+			paid -= cents(previous.getPaidCents());
+			outstanding -= outstandingCents(previous);
+		}
+		return new CustomerTotals(count, billed, audited, paid, outstanding);
+	}
+
+	/*
+	 * What is still owed on a bill: the audited amount once audited, else the billed amount,
+	 * and nothing once paid.
+	 */
+	private static long outstandingCents(BillDataBean bean) {
+		if (bean.getPaidCents() != BillDataBean.NO_AMOUNT) {
+			return 0;
+		}
+		return cents(bean.getAuditedCents() != BillDataBean.NO_AMOUNT ? bean.getAuditedCents() : bean.getAmountCents());
+	}
+
+	private static long cents(long cents) {
+		return cents == BillDataBean.NO_AMOUNT ? 0 : cents;
+	}
+
+	static long cents(BigDecimal amount) {
+		if (amount == null) {
+			return 0;
+		}
+		return amount.setScale(2, BigDecimal.ROUND_HALF_UP).unscaledValue().longValue();
+	}
+
+	public int getBillCount() { return this.billCount; }
+	public long getBilledCents() { return this.billedCents; }
+	public long getAuditedCents() { return this.auditedCents; }
+	public long getPaidCents() { return this.paidCents; }
+	public long getOutstandingCents() { return this.outstandingCents; }
+
+	public BigDecimal getBilled() { return BigDecimal.valueOf(this.billedCents, 2); }
+	public BigDecimal getAudited() { return BigDecimal.valueOf(this.auditedCents, 2); }
+	public BigDecimal getPaid() { return BigDecimal.valueOf(this.paidCents, 2); }
+	public BigDecimal getOutstanding() { return BigDecimal.valueOf(this.outstandingCents, 2); }
+}
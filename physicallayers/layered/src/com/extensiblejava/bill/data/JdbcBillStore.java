@@ -0,0 +1,611 @@
+package com.extensiblejava.bill.data;
+
+import java.math.*;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * Keeps customers and bills in a relational database. Written against plain JDBC and
+ * portable SQL so an embedded H2 or Derby database in file mode can stand in locally; the
+ * driver only has to be on the classpath. Writes are upserts done as an UPDATE followed by an
+ * INSERT for rows that were not there, and updateAll sends each of those as one JDBC batch in
+ * a single transaction. When another writer inserts the same bill between the two, the
+ * INSERT fails on the primary key and the UPDATE is run again, so the upsert still wins.
+ */
+public class JdbcBillStore implements BillStore {
+	private static final String SELECT_CUSTOMER = "SELECT FIRST_NAME, LAST_NAME FROM CUSTOMER WHERE CUST_ID = ?";
+	private static final String UPDATE_CUSTOMER = "UPDATE CUSTOMER SET FIRST_NAME = ?, LAST_NAME = ? WHERE CUST_ID = ?";
+	private static final String INSERT_CUSTOMER = "INSERT INTO CUSTOMER (FIRST_NAME, LAST_NAME, CUST_ID) VALUES (?, ?, ?)";
+	private static final String SELECT_VERSION = "SELECT VERSION FROM BILL WHERE BILL_ID = ?";
+	private static final String SELECT_BILL = "SELECT BILL_ID, CUST_ID, NAME, AMOUNT, AUDITED_AMOUNT, PAID_AMOUNT, VERSION FROM BILL WHERE BILL_ID = ?";
+	private static final String SELECT_BILLS = "SELECT BILL_ID, CUST_ID, NAME, AMOUNT, AUDITED_AMOUNT, PAID_AMOUNT, VERSION FROM BILL WHERE CUST_ID = ? ORDER BY BILL_ID";
+	private static final String SELECT_PAGE = "SELECT BILL_ID, CUST_ID, NAME, AMOUNT, AUDITED_AMOUNT, PAID_AMOUNT, VERSION FROM BILL WHERE CUST_ID = ? AND BILL_ID > ?";
+	private static final String SELECT_BY_STATUS = "SELECT BILL_ID, CUST_ID, NAME, AMOUNT, AUDITED_AMOUNT, PAID_AMOUNT, VERSION FROM BILL WHERE BILL_ID > ?";
+	private static final String SELECT_TOTALS = "SELECT COUNT(*), SUM(AMOUNT), SUM(AUDITED_AMOUNT), SUM(PAID_AMOUNT), "
+		+ "SUM(CASE WHEN PAID_AMOUNT IS NULL THEN COALESCE(AUDITED_AMOUNT, AMOUNT) ELSE 0 END) FROM BILL WHERE CUST_ID = ?";
+	private static final String COUNT_BY_STATUS = "SELECT COUNT(*) FROM BILL WHERE 1 = 1";
+	private static final int STATUS_PAGE_SIZE = 1000;
+	private static final String PAGE_ORDER = " ORDER BY BILL_ID";
+	private static final Map STATUS_CONDITIONS = new HashMap();
+	private static final String UPDATE_BILL = "UPDATE BILL SET CUST_ID = ?, NAME = ?, AMOUNT = ?, AUDITED_AMOUNT = ?, PAID_AMOUNT = ?, VERSION = ? WHERE BILL_ID = ?";
+	private static final String COMPARE_AND_SET_BILL = "UPDATE BILL SET CUST_ID = ?, NAME = ?, AMOUNT = ?, AUDITED_AMOUNT = ?, PAID_AMOUNT = ?, VERSION = ? WHERE BILL_ID = ? AND VERSION = ?";
+	private static final String INSERT_BILL = "INSERT INTO BILL (CUST_ID, NAME, AMOUNT, AUDITED_AMOUNT, PAID_AMOUNT, VERSION, BILL_ID) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String[] SCHEMA = {
+		"CREATE TABLE CUSTOMER (CUST_ID INTEGER NOT NULL PRIMARY KEY, FIRST_NAME VARCHAR(64), LAST_NAME VARCHAR(64))",
+		"CREATE TABLE BILL (BILL_ID INTEGER NOT NULL PRIMARY KEY, CUST_ID INTEGER NOT NULL, NAME VARCHAR(128), "
+			+ "AMOUNT DECIMAL(15,2), AUDITED_AMOUNT DECIMAL(15,2), PAID_AMOUNT DECIMAL(15,2), VERSION BIGINT NOT NULL)",
+		"CREATE INDEX BILL_CUSTOMER ON BILL (CUST_ID, BILL_ID)"
+	};
+
+	static {
+		STATUS_CONDITIONS.put(BillDataBean.NEW, " AND PAID_AMOUNT IS NULL AND AUDITED_AMOUNT IS NULL");
+		STATUS_CONDITIONS.put(BillDataBean.AUDITED, " AND PAID_AMOUNT IS NULL AND AUDITED_AMOUNT IS NOT NULL");
+		STATUS_CONDITIONS.put(BillDataBean.PAID, " AND PAID_AMOUNT IS NOT NULL");
+	}
+
+	private ConnectionPool pool;
+
+	public JdbcBillStore(ConnectionPool pool) throws SQLException {
+		this.pool = pool;
+		createSchema();
+	}
+
+	private void createSchema() throws SQLException {
+		ConnectionPool.PooledConnection pooled = this.pool.borrow();
+		boolean broken = true;
+		try {
+			Connection connection = pooled.getConnection();
+			ResultSet tables = connection.getMetaData().getTables(null, null, "BILL", null);
+			boolean exists;
+			try {
+				exists = tables.next();
+			} finally {
+				tables.close();
+			}
+			if (!exists) {
+				Statement statement = connection.createStatement();
+				try {
+					for (int i = 0; i < SCHEMA.length; i++) {
+						statement.executeUpdate(SCHEMA[i]);
+					}
+				} finally {
+					statement.close();
+				}
+				if (!connection.getAutoCommit()) {
+					connection.commit();
+				}
+			}
+			broken = false;
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public void addCustomer(CustomerDataBean customer) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			PreparedStatement update = pooled.prepare(UPDATE_CUSTOMER);
+			bindCustomer(update, customer);
+			if (update.executeUpdate() == 0) {
+				PreparedStatement insert = pooled.prepare(INSERT_CUSTOMER);
+				bindCustomer(insert, customer);
+				insert.executeUpdate();
+			}
+			broken = false;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to save customer " + customer.getId(), e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public CustomerDataBean getCustomer(Integer custId) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			PreparedStatement select = pooled.prepare(SELECT_CUSTOMER);
+			select.setInt(1, custId.intValue());
+			ResultSet rs = select.executeQuery();
+			try {
+				CustomerDataBean customer = null;
+				if (rs.next()) {
+					customer = new CustomerDataBean(custId, rs.getString(1), rs.getString(2));
+				}
+				broken = false;
+				return customer;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to load customer " + custId, e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public Collection getBills(Integer custId) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			PreparedStatement select = pooled.prepare(SELECT_BILLS);
+			select.setInt(1, custId.intValue());
+			ResultSet rs = select.executeQuery();
+			try {
+				ArrayList bills = new ArrayList();
+				while (rs.next()) {
+					bills.add(readBill(rs));
+				}
+				broken = false;
+				return bills;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to load bills for customer " + custId, e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public List getBills(Integer custId, Integer afterBillId, int limit, String status) {
+		String sql = SELECT_PAGE;
+		if (status != null) {
+			sql = sql + statusCondition(status);
+		}
+		sql = sql + PAGE_ORDER;
+		return queryPage(sql, custId, afterBillId, limit);
+	}
+
+	/*
+	 * Summed by the database over the customer's rows in the BILL_CUSTOMER index rather than
+	 * maintained, since other writers may change the table directly.
+	 */
+	public CustomerTotals getCustomerTotals(Integer custId) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			PreparedStatement select = pooled.prepare(SELECT_TOTALS);
+			select.setInt(1, custId.intValue());
+			ResultSet rs = select.executeQuery();
+			try {
+				rs.next();
+				CustomerTotals totals = new CustomerTotals(rs.getInt(1), CustomerTotals.cents(rs.getBigDecimal(2)),
+					CustomerTotals.cents(rs.getBigDecimal(3)), CustomerTotals.cents(rs.getBigDecimal(4)),
+					CustomerTotals.cents(rs.getBigDecimal(5)));
+				broken = false;
+				return totals;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to total bills for customer " + custId, e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public int countBills(String status) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			ResultSet rs = pooled.prepare(COUNT_BY_STATUS + statusCondition(status)).executeQuery();
+			try {
+				rs.next();
+				int count = rs.getInt(1);
+				broken = false;
+				return count;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to count " + status + " bills", e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	/*
+	 * Walks the bills in bill id order a page at a time, so only one page is ever held and no
+	 * connection is kept between pages.
+	 */
+	public Iterator getBillsByStatus(String status) {
+		final String sql = SELECT_BY_STATUS + statusCondition(status) + PAGE_ORDER;
+		return new Iterator() {
+			private Iterator page = Collections.EMPTY_LIST.iterator();
+			private Integer lastBillId;
+			private boolean exhausted;
+
+			public boolean hasNext() {
+				if (!this.page.hasNext() && !this.exhausted) {
+					List bills = queryPage(sql, null, this.lastBillId, STATUS_PAGE_SIZE);
+					this.exhausted = bills.size() < STATUS_PAGE_SIZE;
+					if (!bills.isEmpty()) {
+						this.lastBillId = ((BillDataBean) bills.get(bills.size() - 1)).getBillId();
+					}
+					this.page = bills.iterator();
+				}
+				return this.page.hasNext();
+			}
+
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return this.page.next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private String statusCondition(String status) {
+		String condition = (String) STATUS_CONDITIONS.get(status);
+		if (condition == null) {
+			throw new IllegalArgumentException("Unknown bill status " + status);
+		}
+		return condition;
+	}
+
+	private List queryPage(String sql, Integer custId, Integer afterBillId, int limit) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			PreparedStatement select = pooled.prepare(sql);
+			int parameter = 1;
+			if (custId != null) {
+				select.setInt(parameter++, custId.intValue());
+			}
+			select.setInt(parameter, afterBillId == null ? Integer.MIN_VALUE : afterBillId.intValue());
+			select.setMaxRows(limit);
+			ResultSet rs = select.executeQuery();
+			try {
+				ArrayList bills = new ArrayList();
+				while (rs.next() && bills.size() < limit) {
+					bills.add(readBill(rs));
+				}
+				broken = false;
+				return bills;
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to load bills", e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public BillDataBean getBill(Integer billId) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			BillDataBean bill = selectBill(pooled, billId);
+			broken = false;
+			return bill;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to load bill " + billId, e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	public void update(BillDataBean bean) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			PreparedStatement update = pooled.prepare(UPDATE_BILL);
+			bindBill(update, bean);
+			if (update.executeUpdate() == 0 && !insert(pooled, bean)) {
+				// another writer inserted the bill since the update missed it
+				bindBill(update, bean);
+				update.executeUpdate();
+			}
+			broken = false;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to save bill " + bean.getBillId(), e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	/*
+	 * Saves every bean in one transaction: a batch of updates, then a batch of inserts for the
+	 * bills the updates did not find. If another writer inserted one of those bills meanwhile the
+	 * transaction is rolled back and run once more, when the updates find it.
+	 */
+	public void updateAll(Collection beans) {
+		if (beans.isEmpty()) {
+			return;
+		}
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		Connection connection = pooled.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			try {
+				try {
+					saveAll(pooled, beans);
+				} catch (SQLException e) {
+					if (!isDuplicate(e)) {
+						throw e;
+					}
+					connection.rollback();
+					saveAll(pooled, beans);
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+			broken = false;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to save " + beans.size() + " bills", e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	private static void saveAll(ConnectionPool.PooledConnection pooled, Collection beans) throws SQLException {
+		PreparedStatement update = pooled.prepare(UPDATE_BILL);
+		Iterator iterator = beans.iterator();
+		while (iterator.hasNext()) {
+			bindBill(update, (BillDataBean) iterator.next());
+			update.addBatch();
+		}
+		int[] counts = update.executeBatch();
+
+		PreparedStatement insert = pooled.prepare(INSERT_BILL);
+		boolean inserts = false;
+		iterator = beans.iterator();
+		for (int i = 0; iterator.hasNext(); i++) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			if (updated(counts, i) == 0 || (updated(counts, i) < 0 && storedVersion(pooled, bean) < 0)) {
+				bindBill(insert, bean);
+				insert.addBatch();
+				inserts = true;
+			}
+		}
+		if (inserts) {
+			insert.executeBatch();
+		}
+	}
+
+	public boolean compareAndSet(BillDataBean bean) {
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		try {
+			boolean stored = compareAndSet(pooled, bean);
+			broken = false;
+			return stored;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to save bill " + bean.getBillId(), e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	/*
+	 * Sends the version checked updates as one batch in one transaction. Beans the batch did
+	 * not match are inserted if they are first versions and otherwise reported as conflicts.
+	 * A driver that reports SUCCESS_NO_INFO leaves the match unknown, so the stored row is read
+	 * back: a bean is stored if the row now holds its version and contents, inserted if there
+	 * is no row, and otherwise a conflict.
+	 */
+	public List compareAndSetAll(Collection beans) {
+		ArrayList conflicts = new ArrayList();
+		if (beans.isEmpty()) {
+			return conflicts;
+		}
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		Connection connection = pooled.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			try {
+				PreparedStatement update = pooled.prepare(COMPARE_AND_SET_BILL);
+				Iterator iterator = beans.iterator();
+				while (iterator.hasNext()) {
+					BillDataBean bean = (BillDataBean) iterator.next();
+					bindBill(update, bean);
+					update.setLong(8, bean.getVersion() - 1);
+					update.addBatch();
+				}
+				int[] counts = update.executeBatch();
+
+				iterator = beans.iterator();
+				for (int i = 0; iterator.hasNext(); i++) {
+					BillDataBean bean = (BillDataBean) iterator.next();
+					int count = updated(counts, i);
+					boolean stored;
+					if (count < 0) {
+						BillDataBean current = selectBill(pooled, bean.getBillId());
+						stored = current == null ? insertFirstVersion(pooled, bean) : sameBill(current, bean);
+					} else {
+						stored = count > 0 || insertFirstVersion(pooled, bean);
+					}
+					if (!stored) {
+						conflicts.add(bean);
+					}
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+			broken = false;
+			return conflicts;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to save " + beans.size() + " bills", e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	/*
+	 * Inserts the beans in one transaction, each under its own savepoint, and returns those
+	 * whose bill was already there.
+	 */
+	public List insertAll(Collection beans) {
+		ArrayList skipped = new ArrayList();
+		if (beans.isEmpty()) {
+			return skipped;
+		}
+		ConnectionPool.PooledConnection pooled = borrow();
+		boolean broken = true;
+		Connection connection = pooled.getConnection();
+		try {
+			connection.setAutoCommit(false);
+			try {
+				Iterator iterator = beans.iterator();
+				while (iterator.hasNext()) {
+					BillDataBean bean = (BillDataBean) iterator.next();
+					if (!insert(pooled, bean)) {
+						skipped.add(bean);
+					}
+				}
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
+			}
+			broken = false;
+			return skipped;
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to insert " + beans.size() + " bills", e);
+		} finally {
+			this.pool.release(pooled, broken);
+		}
+	}
+
+	private boolean compareAndSet(ConnectionPool.PooledConnection pooled, BillDataBean bean) throws SQLException {
+		PreparedStatement update = pooled.prepare(COMPARE_AND_SET_BILL);
+		bindBill(update, bean);
+		update.setLong(8, bean.getVersion() - 1);
+		if (update.executeUpdate() == 1) {
+			return true;
+		}
+		return insertFirstVersion(pooled, bean);
+	}
+
+	private boolean insertFirstVersion(ConnectionPool.PooledConnection pooled, BillDataBean bean) throws SQLException {
+		return bean.getVersion() == 1 && insert(pooled, bean);
+	}
+
+	/*
+	 * Inserts the bill, or returns false if another writer inserted it first. Inside a
+	 * transaction the insert runs under a savepoint, so losing the race rolls back only the
+	 * insert; some databases would otherwise refuse every later statement in the transaction.
+	 */
+	private static boolean insert(ConnectionPool.PooledConnection pooled, BillDataBean bean) throws SQLException {
+		Connection connection = pooled.getConnection();
+		Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+		PreparedStatement insert = pooled.prepare(INSERT_BILL);
+		bindBill(insert, bean);
+		try {
+			insert.executeUpdate();
+			return true;
+		} catch (SQLException e) {
+			if (isDuplicate(e)) {
+				if (savepoint != null) {
+					connection.rollback(savepoint);
+				}
+				return false;
+			}
+			throw e;
+		}
+	}
+
+	/*
+	 * SQLState class 23 is an integrity constraint violation, here a primary key another writer
+	 * took first. Batch failures may carry it on a chained exception instead.
+	 */
+	private static boolean isDuplicate(SQLException e) {
+		for (; e != null; e = e.getNextException()) {
+			if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * The rows a batched statement changed, or -1 when the driver only reports SUCCESS_NO_INFO.
+	 */
+	private static int updated(int[] counts, int i) throws SQLException {
+		if (counts[i] == Statement.EXECUTE_FAILED) {
+			throw new SQLException("Statement " + i + " of the batch failed");
+		}
+		return counts[i] == Statement.SUCCESS_NO_INFO ? -1 : counts[i];
+	}
+
+	/*
+	 * The version of the bill as stored, or -1 if there is no such bill.
+	 */
+	private static long storedVersion(ConnectionPool.PooledConnection pooled, BillDataBean bean) throws SQLException {
+		PreparedStatement select = pooled.prepare(SELECT_VERSION);
+		select.setInt(1, bean.getBillId().intValue());
+		ResultSet rs = select.executeQuery();
+		try {
+			return rs.next() ? rs.getLong(1) : -1;
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static BillDataBean selectBill(ConnectionPool.PooledConnection pooled, Integer billId) throws SQLException {
+		PreparedStatement select = pooled.prepare(SELECT_BILL);
+		select.setInt(1, billId.intValue());
+		ResultSet rs = select.executeQuery();
+		try {
+			return rs.next() ? readBill(rs) : null;
+		} finally {
+			rs.close();
+		}
+	}
+
+	private static boolean sameBill(BillDataBean stored, BillDataBean bean) {
+		return stored.getVersion() == bean.getVersion() && stored.getCustId().equals(bean.getCustId())
+			&& (stored.getName() == null ? bean.getName() == null : stored.getName().equals(bean.getName()))
+			&& stored.getAmountCents() == bean.getAmountCents() && stored.getAuditedCents() == bean.getAuditedCents()
+			&& stored.getPaidCents() == bean.getPaidCents();
+	}
+
+	private ConnectionPool.PooledConnection borrow() {
+		try {
+			return this.pool.borrow();
+		} catch (SQLException e) {
+			throw new BillDbException("Unable to get a bill database connection", e);
+		}
+	}
+
+	private static void bindCustomer(PreparedStatement statement, CustomerDataBean customer) throws SQLException {
+		statement.setString(1, customer.getFirstName());
+		statement.setString(2, customer.getLastName());
+		statement.setInt(3, customer.getId().intValue());
+	}
+
+	private static void bindBill(PreparedStatement statement, BillDataBean bean) throws SQLException {
+		statement.setInt(1, bean.getCustId().intValue());
+		statement.setString(2, bean.getName());
+		statement.setBigDecimal(3, bean.getAmount());
+		statement.setBigDecimal(4, bean.getAuditedAmount());
+		statement.setBigDecimal(5, bean.getPaidAmount());
+		statement.setLong(6, bean.getVersion());
+		statement.setInt(7, bean.getBillId().intValue());
+	}
+
+	private static BillDataBean readBill(ResultSet rs) throws SQLException {
+		return new BillDataBean(Integer.valueOf(rs.getInt(1)), Integer.valueOf(rs.getInt(2)), rs.getString(3),
+								rs.getBigDecimal(4), rs.getBigDecimal(5), rs.getBigDecimal(6), rs.getLong(7));
+	}
+}
@@ -0,0 +1,243 @@
+package com.extensiblejava.bill.data;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Keeps bills in memory as published versions. A stored BillDataBean is never changed again;
+ * writers store a new version instead, so a reader holding a bill, or a customer's bill list,
+ * keeps a consistent view of it without taking any lock. Bills are partitioned by customer and
+ * each partition has a single writer thread, so writes to different customers never contend
+ * and writes to one customer are applied in the order they were queued.
+ */
+public class MemoryBillStore implements BillStore {
+
+	private BillPartition[] partitions;
+	private ConcurrentHashMap billBeans;
+	private volatile BillLog log;
+
+	public MemoryBillStore() {
+		this(Integer.getInteger("billdb.partitions", Runtime.getRuntime().availableProcessors()).intValue());
+	}
+
+	public MemoryBillStore(int partitionCount) {
+		if (partitionCount < 1) {
+			throw new IllegalArgumentException("Partition count must be at least 1: " + partitionCount);
+		}
+		this.billBeans = new ConcurrentHashMap();
+		this.partitions = new BillPartition[partitionCount];
+		for (int i = 0; i < partitionCount; i++) {
+			this.partitions[i] = new BillPartition(this.billBeans, "BillDb partition " + i);
+		}
+	}
+
+	/*
+	 * Recovers the customers and bills logged under dir and logs every later change there.
+	 * A change is then applied, and returns, only once its record has been forced to disk.
+	 * The log's sync batch size, sync interval and snapshot threshold come from the
+	 * billdb.sync.batch, billdb.sync.interval and billdb.snapshot.bytes properties.
+	 */
+	public void open(File dir) throws IOException {
+		open(new BillLog(dir, Integer.getInteger("billdb.sync.batch", 256).intValue(),
+			Long.getLong("billdb.sync.interval", 0).longValue(), Long.getLong("billdb.snapshot.bytes", 64L * 1024 * 1024).longValue()));
+	}
+
+	public synchronized void open(BillLog billLog) throws IOException {
+		if (this.log != null) {
+			throw new IllegalStateException("Bill store is already logging");
+		}
+		Map customers = new HashMap();
+		Collection bills = billLog.recover(customers);
+		Iterator iterator = customers.values().iterator();
+		while (iterator.hasNext()) {
+			addCustomer((CustomerDataBean) iterator.next());
+		}
+		write(bills, BillPartition.OVERWRITE);
+		billLog.start();
+		this.log = billLog;
+	}
+
+	/*
+	 * Stops the partition writers and closes the log. Writes made after this fail.
+	 */
+	public synchronized void close() throws IOException {
+		for (int i = 0; i < this.partitions.length; i++) {
+			this.partitions[i].close();
+		}
+		if (this.log != null) {
+			BillLog billLog = this.log;
+			this.log = null;
+			billLog.close();
+		}
+	}
+
+	private BillPartition partitionFor(Integer custId) {
+		return this.partitions[(custId.hashCode() & 0x7fffffff) % this.partitions.length];
+	}
+
+	public void addCustomer(CustomerDataBean customer) {
+		partitionFor(customer.getId()).submit(customer, this.log).await();
+	}
+
+	public CustomerDataBean getCustomer(Integer custId) {
+		return partitionFor(custId).getCustomer(custId);
+	}
+
+	public Collection getBills(Integer custId) {
+		return partitionFor(custId).getBills(custId);
+	}
+
+	public List getBills(Integer custId, Integer afterBillId, int limit, String status) {
+		return partitionFor(custId).getBills(custId, afterBillId, limit, status);
+	}
+
+	public BillDataBean getBill(Integer billId) {
+		return (BillDataBean) this.billBeans.get(billId);
+	}
+
+	public CustomerTotals getCustomerTotals(Integer custId) {
+		return partitionFor(custId).getCustomerTotals(custId);
+	}
+
+	public int countBills(String status) {
+		int count = 0;
+		for (int i = 0; i < this.partitions.length; i++) {
+			count += this.partitions[i].countBills(status);
+		}
+		return count;
+	}
+
+	public Iterator getBillsByStatus(String status) {
+		final Iterator[] iterators = new Iterator[this.partitions.length];
+		for (int i = 0; i < iterators.length; i++) {
+			iterators[i] = this.partitions[i].getBillsByStatus(status);
+		}
+		return new Iterator() {
+			private int partition = 0;
+
+			public boolean hasNext() {
+				while (this.partition < iterators.length) {
+					if (iterators[this.partition].hasNext()) {
+						return true;
+					}
+					this.partition++;
+				}
+				return false;
+			}
+
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return iterators[this.partition].next();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	public void update(BillDataBean bean) {
+		write(Collections.singletonList(bean), BillPartition.OVERWRITE);
+	}
+
+	public void updateAll(Collection beans) {
+		write(beans, BillPartition.OVERWRITE);
+	}
+
+	public boolean compareAndSet(BillDataBean bean) {
+		return write(Collections.singletonList(bean), BillPartition.COMPARE).isEmpty();
+	}
+
+	public List compareAndSetAll(Collection beans) {
+		return write(beans, BillPartition.COMPARE);
+	}
+
+	/*
+	 * A bill already stored, or repeated earlier in beans, is skipped before any partition sees
+	 * it, so no insert can move a bill to another customer; the partitions check again for bills
+	 * stored meanwhile.
+	 */
+	public List insertAll(Collection beans) {
+		ArrayList skipped = new ArrayList();
+		ArrayList inserts = new ArrayList(beans.size());
+		HashSet billIds = new HashSet();
+		Iterator iterator = beans.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			if (!billIds.add(bean.getBillId()) || this.billBeans.containsKey(bean.getBillId())) {
+				skipped.add(bean);
+			} else {
+				inserts.add(bean);
+			}
+		}
+		skipped.addAll(write(inserts, BillPartition.INSERT));
+		return skipped;
+	}
+
+	/*
+	 * Hands the beans to the writers of their partitions, checking them first as the mode says,
+	 * and returns those that conflicted. With a log the beans are applied, and the call returns,
+	 * once they are durable.
+	 */
+	private List write(Collection beans, int mode) {
+		BillLog billLog = this.log;
+		if (beans.isEmpty()) {
+			return new ArrayList();
+		}
+		BillPartition.Write[] writes = new BillPartition.Write[this.partitions.length];
+		if (beans.size() == 1) {
+			BillDataBean bean = (BillDataBean) beans.iterator().next();
+			writes[0] = partitionFor(bean.getCustId()).submit(beans, mode, billLog);
+		} else {
+			if (mode != BillPartition.INSERT) {
+				checkCustomers(beans);
+			}
+			ArrayList[] byPartition = new ArrayList[this.partitions.length];
+			Iterator iterator = beans.iterator();
+			while (iterator.hasNext()) {
+				BillDataBean bean = (BillDataBean) iterator.next();
+				int partition = (bean.custId() & 0x7fffffff) % this.partitions.length;
+				if (byPartition[partition] == null) {
+					byPartition[partition] = new ArrayList();
+				}
+				byPartition[partition].add(bean);
+			}
+			for (int i = 0; i < byPartition.length; i++) {
+				if (byPartition[i] != null) {
+					writes[i] = this.partitions[i].submit(byPartition[i], mode, billLog);
+				}
+			}
+		}
+		ArrayList conflicts = new ArrayList();
+		for (int i = 0; i < writes.length; i++) {
+			if (writes[i] != null) {
+				conflicts.addAll(writes[i].await());
+			}
+		}
+		return conflicts;
+	}
+
+	/*
+	 * Each partition checks its own part of a write before applying any of it, but a bill
+	 * moving to another customer can span partitions, so a write that does that is turned
+	 * away before any partition sees it.
+	 */
+	private void checkCustomers(Collection beans) {
+		HashMap owners = new HashMap();
+		Iterator iterator = beans.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			BillDataBean owner = (BillDataBean) owners.get(bean.getBillId());
+			if (owner == null) {
+				owner = (BillDataBean) this.billBeans.get(bean.getBillId());
+			}
+			if (owner != null && owner.custId() != bean.custId()) {
+				throw new IllegalArgumentException("Bill " + bean.getBillId() + " belongs to customer " + owner.getCustId());
+			}
+			owners.put(bean.getBillId(), bean);
+		}
+	}
+}
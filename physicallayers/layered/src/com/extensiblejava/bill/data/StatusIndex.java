@@ -0,0 +1,154 @@
+package com.extensiblejava.bill.data;
+
+import java.util.*;
+
+/*
+ * A bitmap per bill status over bill ordinals. Each bill is given the next ordinal the first
+ * time it is stored, so the bitmaps stay dense and one bit covers a bill whatever its id.
+ * Updates only touch the bits of a bill whose status changed, counts are kept alongside, and
+ * a query clones the bitmap it needs and walks it without holding the lock.
+ *
+ * Ordinals are found through an open addressing table of plain ints, and the index keeps only
+ * the bill id of each ordinal; the beans themselves are read from the store's own map.
+ */
+class StatusIndex {
+	private static final String[] STATUSES = { BillDataBean.NEW, BillDataBean.AUDITED, BillDataBean.PAID };
+
+	private Map billBeans;
+	private int[] slotIds = new int[2048];
+	private int[] slotOrdinals = new int[2048];
+	private int size;
+	private int[] billIds = new int[1024];
+	private byte[] statusOf = new byte[1024];
+	private BitSet[] bitmaps = new BitSet[STATUSES.length];
+	private int[] counts = new int[STATUSES.length];
+
+	StatusIndex(Map billBeans) {
+		this.billBeans = billBeans;
+		for (int i = 0; i < STATUSES.length; i++) {
+			this.bitmaps[i] = new BitSet();
+		}
+	}
+
+	synchronized void update(BillDataBean bean) {
+		int status = statusCode(bean.getStatus());
+		int billId = bean.getBillId().intValue();
+		int slot = slot(billId);
+		int ordinal = this.slotOrdinals[slot] - 1;
+		if (ordinal < 0) {
+			ordinal = this.size++;
+			grow(this.size);
+			this.billIds[ordinal] = billId;
+			this.slotIds[slot] = billId;
+			this.slotOrdinals[slot] = ordinal + 1;
+			if (this.size * 2 > this.slotIds.length) {
+				rehash(this.slotIds.length * 2);
+			}
+		} else {
+			int previous = this.statusOf[ordinal];
+			if (previous == status) {
+				return;
+			}
+			this.bitmaps[previous].clear(ordinal);
+			this.counts[previous]--;
+		}
+		this.statusOf[ordinal] = (byte) status;
+		this.bitmaps[status].set(ordinal);
+		this.counts[status]++;
+	}
+
+	synchronized int count(String status) {
+		return this.counts[statusCode(status)];
+	}
+
+	/*
+	 * Iterates the bills in the given status as of the call. A bill whose status has moved on
+	 * by the time the iterator reaches it is skipped. The bill id of an ordinal never changes
+	 * once it is written under the lock, so the ids behind the cloned bitmap are safe to read
+	 * without it.
+	 */
+	Iterator iterator(final String status) {
+		final BitSet bitmap;
+		final int[] snapshot;
+		synchronized (this) {
+			bitmap = (BitSet) this.bitmaps[statusCode(status)].clone();
+			snapshot = this.billIds;
+		}
+		return new Iterator() {
+			private int ordinal = -1;
+			private BillDataBean next = advance();
+
+			private BillDataBean advance() {
+				while ((this.ordinal = bitmap.nextSetBit(this.ordinal + 1)) >= 0) {
+					BillDataBean bean = (BillDataBean) billBeans.get(Integer.valueOf(snapshot[this.ordinal]));
+					if (bean != null && status.equals(bean.getStatus())) {
+						return bean;
+					}
+				}
+				return null;
+			}
+
+			public boolean hasNext() {
+				return this.next != null;
+			}
+
+			public Object next() {
+				if (this.next == null) {
+					throw new NoSuchElementException();
+				}
+				BillDataBean bean = this.next;
+				this.next = advance();
+				return bean;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private void grow(int size) {
+		if (size > this.billIds.length) {
+			int capacity = Math.max(size, this.billIds.length * 2);
+			int[] grownIds = new int[capacity];
+			System.arraycopy(this.billIds, 0, grownIds, 0, this.billIds.length);
+			byte[] grownStatus = new byte[capacity];
+			System.arraycopy(this.statusOf, 0, grownStatus, 0, this.statusOf.length);
+			this.billIds = grownIds;
+			this.statusOf = grownStatus;
+		}
+	}
+
+	/*
+	 * The table slot holding billId, or the empty slot where it belongs. A slot's ordinal is
+	 * stored plus one, so zero marks an empty slot.
+	 */
+	private int slot(int billId) {
+		int mask = this.slotIds.length - 1;
+		int hash = billId * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (this.slotOrdinals[slot] != 0 && this.slotIds[slot] != billId) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash(int capacity) {
+		this.slotIds = new int[capacity];
+		this.slotOrdinals = new int[capacity];
+		for (int ordinal = 0; ordinal < this.size; ordinal++) {
+			int slot = slot(this.billIds[ordinal]);
+			this.slotIds[slot] = this.billIds[ordinal];
+			this.slotOrdinals[slot] = ordinal + 1;
+		}
+	}
+
+	private static int statusCode(String status) {
+		for (int i = 0; i < STATUSES.length; i++) {
+			if (STATUSES[i].equals(status)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown bill status " + status);
+	}
+}
@@ -0,0 +1,23 @@
+package com.extensiblejava.financial;
+
+import java.math.*;
+import java.util.*;
+
+/*
+ * One payment sent to the rails on behalf of a customer, covering every bill listed.
+ */
+public class Draft {
+	private Integer custId;
+	private BigDecimal amount;
+	private List billIds;
+
+	public Draft(Integer custId, BigDecimal amount, List billIds) {
+		this.custId = custId;
+		this.amount = amount;
+		this.billIds = billIds;
+	}
+
+	public Integer getCustId() { return this.custId; }
+	public BigDecimal getAmount() { return this.amount; }
+	public List getBillIds() { return this.billIds; }
+}
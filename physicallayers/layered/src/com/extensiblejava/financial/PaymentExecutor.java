@@ -0,0 +1,283 @@
+package com.extensiblejava.financial;
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+
+/*
+ * Pays bills in windows. A customer's first pay request opens a window; requests for the same
+ * customer that arrive before it closes, or before it reaches maxBatch bills, join it. When
+ * windows close the dispatcher saves every bill paid in those windows as a single batch,
+ * issues one draft per customer for the sum of that customer's bills, and then completes each
+ * caller's future with its own bill's paid amount. Without a rail the bills are only marked
+ * paid and no drafts are issued.
+ */
+public class PaymentExecutor {
+	private static final Logger logger = Logger.getLogger(PaymentExecutor.class.getName());
+
+	private long windowMillis;
+	private int maxBatch;
+	private PaymentRail rail;
+	private Payment payment = new Payment();
+	private LinkedHashMap pending = new LinkedHashMap();
+	private boolean shutdown;
+	private Thread dispatcher;
+	private AtomicLong draftsIssued = new AtomicLong();
+	private AtomicLong billsPaid = new AtomicLong();
+
+	public PaymentExecutor(long windowMillis, int maxBatch, PaymentRail rail) {
+		this.windowMillis = windowMillis;
+		this.maxBatch = maxBatch;
+		this.rail = rail;
+		this.dispatcher = new Thread(new Runnable() {
+			public void run() {
+				dispatch();
+			}
+		}, "PaymentExecutor");
+		this.dispatcher.setDaemon(true);
+		this.dispatcher.start();
+	}
+
+	/*
+	 * Queues the bill for payment and returns a future for its paid amount. Paying a bill that
+	 * is already waiting in a window returns that bill's existing future.
+	 */
+	public synchronized Future pay(Bill bill) {
+		if (this.shutdown) {
+			throw new IllegalStateException("Payment executor is shut down");
+		}
+		CustomerWindow window = (CustomerWindow) this.pending.get(bill.getCustId());
+		if (window == null) {
+			window = new CustomerWindow(bill.getCustId(), System.currentTimeMillis() + this.windowMillis);
+			this.pending.put(bill.getCustId(), window);
+			notifyAll();
+		}
+		CompletableFuture future = (CompletableFuture) window.payments.get(bill.getBillId());
+		if (future == null) {
+			future = new CompletableFuture();
+			window.bills.add(bill);
+			window.payments.put(bill.getBillId(), future);
+			if (window.bills.size() >= this.maxBatch) {
+				window.deadline = 0;
+				notifyAll();
+			}
+		}
+		return future;
+	}
+
+	/*
+	 * Stops taking requests; windows already open are closed immediately and paid.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			this.shutdown = true;
+			notifyAll();
+		}
+		try {
+			this.dispatcher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getDraftsIssued() { return this.draftsIssued.get(); }
+	public long getBillsPaid() { return this.billsPaid.get(); }
+
+	private void dispatch() {
+		while (true) {
+			ArrayList due = new ArrayList();
+			synchronized (this) {
+				while (due.isEmpty()) {
+					if (this.pending.isEmpty()) {
+						if (this.shutdown) {
+							return;
+						}
+						try {
+							wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+						continue;
+					}
+					long now = System.currentTimeMillis();
+					long next = Long.MAX_VALUE;
+					Iterator windows = this.pending.values().iterator();
+					while (windows.hasNext()) {
+						CustomerWindow window = (CustomerWindow) windows.next();
+						if (this.shutdown || window.deadline <= now) {
+							due.add(window);
+							windows.remove();
+						} else {
+							next = Math.min(next, window.deadline);
+						}
+					}
+					if (due.isEmpty()) {
+						try {
+							wait(next - now);
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}
+			execute(due);
+		}
+	}
+
+	/*
+	 * Saves the payments with version checks before any draft goes out, so a bill that was paid
+	 * elsewhere after it was queued is reread and reported with its existing paid amount rather
+	 * than charged again. If the rail refuses a customer's draft, that customer's bills are
+	 * put back to unpaid and their callers fail; other customers are not affected.
+	 */
+	private void execute(List windows) {
+		try {
+			HashMap futures = new HashMap();
+			ArrayList candidates = new ArrayList();
+			Iterator iterator = windows.iterator();
+			while (iterator.hasNext()) {
+				CustomerWindow window = (CustomerWindow) iterator.next();
+				futures.putAll(window.payments);
+				Iterator bills = window.bills.iterator();
+				while (bills.hasNext()) {
+					Bill bill = (Bill) bills.next();
+					BillDataBean bean = BillDb.getBill(Integer.valueOf(bill.getBillId()));
+					if (bean == null) {
+						((CompletableFuture) window.payments.get(bill.getBillId())).completeExceptionally(new IllegalArgumentException("No bill " + bill.getBillId()));
+					} else {
+						candidates.add(bean);
+					}
+				}
+			}
+
+			ArrayList paidBeans = new ArrayList();
+			while (!candidates.isEmpty()) {
+				ArrayList payments = new ArrayList(candidates.size());
+				iterator = candidates.iterator();
+				while (iterator.hasNext()) {
+					BillDataBean bean = (BillDataBean) iterator.next();
+					CompletableFuture future = (CompletableFuture) futures.get(bean.getBillId().toString());
+					if (bean.getPaidAmount() != null) {
+						future.complete(bean.getPaidAmount());
+						continue;
+					}
+					BillDataBean paid = bean.nextVersion();
+					paid.setPaidAmount(this.payment.generateDraft(new Bill(bean)));
+					payments.add(paid);
+				}
+				List conflicts = BillDb.compareAndSetAll(payments);
+				payments.removeAll(conflicts);
+				paidBeans.addAll(payments);
+
+				candidates = new ArrayList(conflicts.size());
+				iterator = conflicts.iterator();
+				while (iterator.hasNext()) {
+					candidates.add(BillDb.getBill(((BillDataBean) iterator.next()).getBillId()));
+				}
+			}
+
+			LinkedHashMap drafts = new LinkedHashMap();
+			EntityCache cache = EntityCache.getInstance();
+			iterator = paidBeans.iterator();
+			while (iterator.hasNext()) {
+				BillDataBean bean = (BillDataBean) iterator.next();
+				cache.invalidateBill(bean.getBillId());
+				cache.invalidateCustomer(bean.getCustId());
+				List customerBills = (List) drafts.get(bean.getCustId());
+				if (customerBills == null) {
+					customerBills = new ArrayList();
+					drafts.put(bean.getCustId(), customerBills);
+				}
+				customerBills.add(bean);
+			}
+
+			iterator = drafts.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry entry = (Map.Entry) iterator.next();
+				List customerBills = (List) entry.getValue();
+				try {
+					issue((Integer) entry.getKey(), customerBills);
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Draft for customer " + entry.getKey() + " was not issued", e);
+					unpay(customerBills);
+					complete(futures, customerBills, e);
+					continue;
+				}
+				this.billsPaid.addAndGet(customerBills.size());
+				complete(futures, customerBills, null);
+			}
+		} catch (RuntimeException e) {
+			Iterator iterator = windows.iterator();
+			while (iterator.hasNext()) {
+				Iterator futures = ((CustomerWindow) iterator.next()).payments.values().iterator();
+				while (futures.hasNext()) {
+					((CompletableFuture) futures.next()).completeExceptionally(e);
+				}
+			}
+		}
+	}
+
+	private void issue(Integer custId, List bills) {
+		if (this.rail == null) {
+			return;
+		}
+		BigDecimal total = new BigDecimal("0.00");
+		ArrayList billIds = new ArrayList();
+		Iterator iterator = bills.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			total = total.add(bean.getPaidAmount());
+			billIds.add(bean.getBillId());
+		}
+		this.rail.issue(new Draft(custId, total, billIds));
+		this.draftsIssued.incrementAndGet();
+	}
+
+	/*
+	 * Takes back payments whose draft never went out. A bill changed again since it was marked
+	 * paid is left as it is.
+	 */
+	private void unpay(List bills) {
+		EntityCache cache = EntityCache.getInstance();
+		Iterator iterator = bills.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			BillDataBean unpaid = bean.nextVersion();
+			unpaid.setPaidAmount(null);
+			if (!BillDb.compareAndSet(unpaid)) {
+				logger.warning("Bill " + bean.getBillId() + " changed after it was paid; its payment was not taken back");
+			}
+			cache.invalidateBill(bean.getBillId());
+			cache.invalidateCustomer(bean.getCustId());
+		}
+	}
+
+	private static void complete(Map futures, List bills, RuntimeException failure) {
+		Iterator iterator = bills.iterator();
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			CompletableFuture future = (CompletableFuture) futures.get(bean.getBillId().toString());
+			if (failure == null) {
+				future.complete(bean.getPaidAmount());
+			} else {
+				future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	private static class CustomerWindow {
+		private Integer custId;
+		private long deadline;
+		private ArrayList bills = new ArrayList();
+		private HashMap payments = new HashMap();
+
+		CustomerWindow(Integer custId, long deadline) {
+			this.custId = custId;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,5 @@
+package com.extensiblejava.financial;
+
+public interface PaymentRail {
+	public void issue(Draft draft);
+}
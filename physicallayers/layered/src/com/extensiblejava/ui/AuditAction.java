@@ -32,6 +32,7 @@ public class AuditAction extends Action {
 
 		bill.audit();
 		request.setAttribute("bill",bill);
+		request.setAttribute("payParams", PayAction.payParams(bill));
 		return (mapping.findForward("success"));
 	}
 
@@ -54,6 +54,7 @@ public class BillDetailAction extends Action {
 
 		//CustomerSearchResultsBean bean = new CustomerSearchResultsBean(customer);
 		request.setAttribute("bill",bill);
+		request.setAttribute("payParams", PayAction.payParams(bill));
 		return (mapping.findForward("success"));
 	}
 
@@ -9,6 +9,7 @@ import org.apache.struts.action.ActionMapping;
 public class BillDetailForm extends ActionForm {
 
 	private String billId;
+	private String idempotencyKey;
 
 	public void setBillId(String billId) {
 		this.billId = billId;
@@ -18,4 +19,12 @@ public class BillDetailForm extends ActionForm {
 		return this.billId;
 	}
 
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	public String getIdempotencyKey() {
+		return this.idempotencyKey;
+	}
+
 }
\ No newline at end of file
@@ -21,6 +21,9 @@ import com.extensiblejava.bill.*;
 import com.extensiblejava.bill.data.*;
 
 public class CustomerSearchAction extends Action {
+	private static final int DEFAULT_PAGE_SIZE = 50;
+	private static final int MAX_PAGE_SIZE = 500;
+
 	public ActionForward perform(ActionMapping mapping,
 				 ActionForm form,
 				 HttpServletRequest request,
@@ -28,11 +31,46 @@ public class CustomerSearchAction extends Action {
 	throws IOException, ServletException {
 		CustomerSearchForm customerSearchForm = (CustomerSearchForm) form;
 
-		Customer customer = Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(customerSearchForm.getCustomerId())));
+		Customer customer = null;
+		if (customerSearchForm.getCustomerId() != null) {
+			try {
+				customer = Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(customerSearchForm.getCustomerId().trim())));
+			} catch (NumberFormatException e) {
+				// not a customer id, so no such customer
+			}
+		}
+		if (customer == null) {
+			request.setAttribute("notfound", customerSearchForm.getCustomerId());
+			return (mapping.findForward("notfound"));
+		}
+
+		String status = customerSearchForm.getStatus();
+		if (status != null && status.length() == 0) {
+			status = null;
+		}
+		String continuation = customerSearchForm.getPage();
+		if (!BillPage.isValid(continuation)) {
+			// a mangled page link: say so and start again from the first page
+			request.setAttribute("invalidpage", continuation);
+			continuation = null;
+		}
+		int pageSize = pageSize(customerSearchForm);
+		BillPage page = customer.getBills(continuation, pageSize, status);
 
-		CustomerSearchResultsBean bean = new CustomerSearchResultsBean(customer);
+		CustomerSearchResultsBean bean = new CustomerSearchResultsBean(customer, page, status, pageSize);
 		request.setAttribute("customerbills",bean);
 		return (mapping.findForward("success"));
 	}
 
+	private int pageSize(CustomerSearchForm form) {
+		if (form.getPageSize() == null || form.getPageSize().length() == 0) {
+			return DEFAULT_PAGE_SIZE;
+		}
+		try {
+			return Math.max(1, Math.min(MAX_PAGE_SIZE, Integer.parseInt(form.getPageSize())));
+		} catch (NumberFormatException e) {
+			return DEFAULT_PAGE_SIZE;
+		}
+	}
+
 }
\ No newline at end of file
@@ -9,6 +9,9 @@ import org.apache.struts.action.ActionMapping;
 public class CustomerSearchForm extends ActionForm {
 
 	private String customerId;
+	private String page;
+	private String pageSize;
+	private String status;
 
 	public void setCustomerId(String customerId) {
 		this.customerId = customerId;
@@ -18,4 +21,28 @@ public class CustomerSearchForm extends ActionForm {
 		return this.customerId;
 	}
 
+	public void setPage(String page) {
+		this.page = page;
+	}
+
+	public String getPage() {
+		return this.page;
+	}
+
+	public void setPageSize(String pageSize) {
+		this.pageSize = pageSize;
+	}
+
+	public String getPageSize() {
+		return this.pageSize;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public String getStatus() {
+		return this.status;
+	}
+
 }
\ No newline at end of file
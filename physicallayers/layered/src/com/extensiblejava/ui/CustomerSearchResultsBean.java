@@ -2,15 +2,36 @@ package com.extensiblejava.ui;
 
 import java.util.*;
 import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.CustomerTotals;
 
 public class CustomerSearchResultsBean {
 	private String name;
 	private List bills;
+	private Map nextParams;
+	private CustomerTotals totals;
+
 	public CustomerSearchResultsBean(Customer customer) {
 		this.name = customer.getName().getFullName();
 		this.bills = customer.getBills();
 	}
 
+	public CustomerSearchResultsBean(Customer customer, BillPage page, String status, int pageSize) {
+		this.name = customer.getName().getFullName();
+		this.bills = page.getBills();
+		this.totals = customer.getTotals();
+		if (page.hasMore()) {
+			this.nextParams = new HashMap();
+			this.nextParams.put("customerId", customer.getCustId().toString());
+			this.nextParams.put("page", page.getContinuation());
+			this.nextParams.put("pageSize", Integer.toString(pageSize));
+			if (status != null) {
+				this.nextParams.put("status", status);
+			}
+		}
+	}
+
 	public String getName() { return this.name; }
 	public List getBills() { return this.bills; }
+	public Map getNextParams() { return this.nextParams; }
+	public CustomerTotals getTotals() { return this.totals; }
 }
\ No newline at end of file
@@ -12,7 +12,6 @@ public class DefaultBillEntityLoader implements BillEntityLoader {
 	}
 
 	public Bill loadBill() {
-		BillDataBean billBean = BillDb.getBill(new Integer(this.billForm.getBillId()));
-		return new Bill(billBean);
+		return EntityCache.getInstance().getBill(new Integer(this.billForm.getBillId()));
 	}
 }
\ No newline at end of file
@@ -0,0 +1,104 @@
+package com.extensiblejava.ui;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Remembers the outcome of recent requests by idempotency key. The first request for a key
+ * runs its work; a duplicate that arrives while it is running waits for that result, and one
+ * that arrives later is answered with it directly. Entries expire after ttlMillis and the
+ * oldest are dropped beyond maxEntries, but never while their request is still running, since
+ * a duplicate would then run the work a second time. A failed request is forgotten so a retry
+ * runs again.
+ */
+public class IdempotencyTable {
+	private int maxEntries;
+	private long ttlMillis;
+	private ConcurrentHashMap entries = new ConcurrentHashMap();
+	private ConcurrentLinkedQueue order = new ConcurrentLinkedQueue();
+
+	public IdempotencyTable(int maxEntries, long ttlMillis) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+	}
+
+	public Object execute(String key, Callable work) throws Exception {
+		long now = System.currentTimeMillis();
+		Entry created = new Entry(key, new FutureTask(work), now + this.ttlMillis);
+		while (true) {
+			Entry entry = (Entry) this.entries.putIfAbsent(key, created);
+			if (entry == null) {
+				this.order.offer(created);
+				evict(now);
+				return run(created);
+			}
+			if (entry.expires > now || !entry.task.isDone()) {
+				return await(entry);
+			}
+			if (this.entries.replace(key, entry, created)) {
+				this.order.offer(created);
+				return run(created);
+			}
+		}
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	private Object run(Entry entry) throws Exception {
+		entry.task.run();
+		try {
+			return entry.task.get();
+		} catch (ExecutionException e) {
+			this.entries.remove(entry.key, entry);
+			throw unwrap(e);
+		}
+	}
+
+	private Object await(Entry entry) throws Exception {
+		try {
+			return entry.task.get();
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	/*
+	 * Entries are queued in the order they were made, which is also the order they expire in, so
+	 * expired and surplus entries are always at the head. Eviction stops at a request still
+	 * running; the table may run over maxEntries until it finishes.
+	 */
+	private void evict(long now) {
+		Entry oldest;
+		while ((oldest = (Entry) this.order.peek()) != null && oldest.task.isDone()
+				&& (oldest.expires <= now || this.entries.size() > this.maxEntries)) {
+			if (this.order.remove(oldest)) {
+				this.entries.remove(oldest.key, oldest);
+			}
+		}
+	}
+
+	private static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Exception) {
+			return (Exception) cause;
+		}
+		if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		return e;
+	}
+
+	private static class Entry {
+		private String key;
+		private FutureTask task;
+		private long expires;
+
+		Entry(String key, FutureTask task, long expires) {
+			this.key = key;
+			this.task = task;
+			this.expires = expires;
+		}
+	}
+}
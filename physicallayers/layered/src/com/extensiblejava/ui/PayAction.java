@@ -19,20 +19,91 @@ import org.apache.struts.util.MessageResources;
 import java.util.*;
 import com.extensiblejava.bill.*;
 import com.extensiblejava.bill.data.*;
+import com.extensiblejava.financial.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
 
 public class PayAction extends Action {
+	private static final Logger logger = Logger.getLogger(PayAction.class.getName());
+	private static final PaymentExecutor executor = createExecutor(System.getProperty("billpay.rail"));
+	private static final IdempotencyTable recentPayments = new IdempotencyTable(
+			Integer.getInteger("billpay.idempotency.size", 100000).intValue(), Long.getLong("billpay.idempotency.ttl", 24 * 60 * 60 * 1000L).longValue());
+
 	public ActionForward perform(ActionMapping mapping,
 				 ActionForm form,
 				 HttpServletRequest request,
 				 HttpServletResponse response)
 	throws IOException, ServletException {
 
-		BillDetailForm billDetailForm = (BillDetailForm) form;
-		Bill bill = Bill.loadBill(new DefaultBillEntityLoader(billDetailForm));
+		final BillDetailForm billDetailForm = (BillDetailForm) form;
+		String key = request.getHeader("Idempotency-Key");
+		if (key == null) {
+			key = billDetailForm.getIdempotencyKey();
+		}
+
+		Callable payment = new Callable() {
+			public Object call() throws Exception {
+				Bill bill = Bill.loadBill(new DefaultBillEntityLoader(billDetailForm));
+				if (executor == null) {
+					bill.pay();
+				} else {
+					try {
+						executor.pay(bill).get();
+					} catch (ExecutionException e) {
+						throw new ServletException(e.getCause());
+					}
+				}
+				return Bill.loadBill(new DefaultBillEntityLoader(billDetailForm));
+			}
+		};
 
-		bill.pay();
+		Bill bill;
+		try {
+			if (key == null || key.length() == 0) {
+				bill = (Bill) payment.call();
+			} else {
+				bill = (Bill) recentPayments.execute(key + ":" + billDetailForm.getBillId(), payment);
+			}
+		} catch (ServletException e) {
+			throw e;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ServletException(e);
+		} catch (Exception e) {
+			throw new ServletException(e);
+		}
 		request.setAttribute("bill",bill);
+		request.setAttribute("payParams", payParams(bill));
 		return (mapping.findForward("success"));
 	}
 
+	/*
+	 * Payments are batched into windows only when the billpay.rail property names a PaymentRail
+	 * to take the drafts. Without one there is no draft to save, so each bill is paid directly
+	 * rather than waiting for its window to close.
+	 */
+	private static PaymentExecutor createExecutor(String railClass) {
+		if (railClass == null) {
+			return null;
+		}
+		try {
+			PaymentRail rail = (PaymentRail) Class.forName(railClass).newInstance();
+			return new PaymentExecutor(Long.getLong("billpay.window", 50).longValue(), 100, rail);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Unable to load payment rail " + railClass + "; paying bills directly", e);
+			return null;
+		}
+	}
+
+	/*
+	 * Parameters for a Pay link, carrying a fresh idempotency key so that resubmitting the same
+	 * link pays at most once.
+	 */
+	static Map payParams(Bill bill) {
+		HashMap params = new HashMap();
+		params.put("billId", bill.getBillId());
+		params.put("idempotencyKey", UUID.randomUUID().toString());
+		return params;
+	}
+
 }
\ No newline at end of file
@@ -17,6 +17,15 @@ public class AllTests extends TestCase {
 		TestSuite packageTests = new TestSuite(AllTests.class.getName());
 		packageTests.addTestSuite(BillTest.class);
 		packageTests.addTestSuite(BillDbTest.class);
+		packageTests.addTestSuite(BillLogTest.class);
+		packageTests.addTestSuite(EntityCacheTest.class);
+		packageTests.addTestSuite(PaymentExecutorTest.class);
+		packageTests.addTestSuite(IdempotencyTableTest.class);
+		packageTests.addTestSuite(BillImportTest.class);
+		packageTests.addTestSuite(AuditRulesTest.class);
+		packageTests.addTestSuite(BillEventRingTest.class);
+		packageTests.addTestSuite(BulkAuditTest.class);
+		packageTests.addTestSuite(JdbcBillStoreTest.class);
 
 		return packageTests;
 
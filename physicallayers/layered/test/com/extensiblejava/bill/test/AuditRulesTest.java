@@ -0,0 +1,97 @@
+package com.extensiblejava.bill.test;
+
+import java.io.*;
+import java.math.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.audit.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+
+public class AuditRulesTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { AuditRulesTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	private static final String RULES =
+		"# name,custId,minAmount,maxAmount,factor\n"
+		+ "ELECTRIC,40,,,1\n"
+		+ "ELECTRIC,,100.00,500.00,0.5\n"
+		+ "*,41,,10.00,0\n"
+		+ ",,,,0.9\n"
+		+ "WATER,41,,,0.1\n";
+
+	public void testFirstMatchingRuleWins() throws Exception {
+		AuditRules rules = AuditRules.parse(new StringReader(RULES));
+		assertEquals(5, rules.getRuleCount());
+
+		assertEquals(20000, rules.audit("ELECTRIC", 40, 20000));
+		assertEquals(10000, rules.audit("ELECTRIC", 39, 20000));
+		assertEquals(45000, rules.audit("ELECTRIC", 39, 50000));
+		assertEquals(8999, rules.audit("ELECTRIC", 39, 9999));
+		assertEquals(0, rules.audit("ELECTRIC", 41, 999));
+		assertEquals(900, rules.audit("ELECTRIC", 41, 1000));
+		assertEquals(900, rules.audit("WATER", 41, 1000));
+		assertEquals(0, rules.audit("GAS", 41, 999));
+		assertEquals(1, rules.audit(null, 7, 1));
+		assertEquals(-3, rules.audit("GAS", 7, -3));
+
+		AuditRules narrow = AuditRules.parse(new StringReader("GAS,,0,1.00,0.333\n"));
+		assertEquals(33, narrow.audit("GAS", 1, 99));
+		assertEquals(250, narrow.audit("GAS", 1, 250));
+		assertEquals(250, narrow.audit("OIL", 1, 250));
+
+		try {
+			AuditRules.parse(new StringReader("\nGAS,,5.00,1.00,0.5\n"));
+			fail("An empty band should be rejected");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith("Line 2"));
+		}
+	}
+
+	public void testRulesReloadUnderBills() throws Exception {
+		AuditRuleLoader loader = AuditRuleLoader.getInstance();
+		AuditRules previous = loader.getRules();
+		try {
+			BillDb.update(new BillDataBean(Integer.valueOf(4001), Integer.valueOf(40), "ELECTRIC", new BigDecimal("80.00"), null, null));
+			loader.setRules(AuditRules.parse(new StringReader("ELECTRIC,40,,,0.25\n")));
+			Bill bill = new Bill(BillDb.getBill(Integer.valueOf(4001)));
+			bill.audit();
+			assertEquals(new BigDecimal("20.00"), bill.getAuditedAmount());
+		} finally {
+			loader.setRules(previous);
+		}
+		assertEquals(new BigDecimal("0.75"), new AuditFacade().audit(new Bill(
+			new BillDataBean(Integer.valueOf(4002), Integer.valueOf(40), "ELECTRIC", new BigDecimal("1.00"), null, null))));
+	}
+
+	public void testBadRulesFileKeepsDefault() throws Exception {
+		AuditRuleLoader missing = new AuditRuleLoader(new File("no-such-audit-rules.csv").getAbsolutePath());
+		assertSame(AuditRules.DEFAULT, missing.getRules());
+
+		File file = File.createTempFile("audit-rules", ".csv");
+		try {
+			Writer out = new FileWriter(file);
+			try {
+				out.write("ELECTRIC,40,,0.25\n");
+			} finally {
+				out.close();
+			}
+			AuditRuleLoader broken = new AuditRuleLoader(file.getPath());
+			assertSame(AuditRules.DEFAULT, broken.getRules());
+			try {
+				broken.reload();
+				fail("A reload of a broken file should still report it");
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().startsWith("Line 1"));
+			}
+			assertSame(AuditRules.DEFAULT, broken.getRules());
+		} finally {
+			file.delete();
+		}
+	}
+}
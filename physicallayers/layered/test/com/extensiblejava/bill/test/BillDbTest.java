@@ -1,5 +1,6 @@
 package com.extensiblejava.bill.test;
 
+import java.math.*;
 import java.util.*;
 import junit.framework.*;
 import junit.textui.*;
@@ -29,4 +30,273 @@ public class BillDbTest extends TestCase
 			i++;
 		}
 	}
-}
+
+	public void testBillsScopedToCustomer() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(2), "Bob", "Jones"));
+		BillDb.update(new BillDataBean(new Integer(100), new Integer(2), "HUNDRED", new BigDecimal("10.00"), null, null));
+		BillDb.update(new BillDataBean(new Integer(101), new Integer(2), "HUNDRED ONE", new BigDecimal("20.00"), null, null));
+
+		assertEquals("Bob", BillDb.getCustomer(new Integer(2)).getFirstName());
+		assertEquals(2, BillDb.getBills(new Integer(2)).size());
+		assertEquals(5, BillDb.getBills(new Integer(1)).size());
+		assertTrue(BillDb.getBills(new Integer(99)).isEmpty());
+		assertEquals(new Integer(2), BillDb.getBill(new Integer(101)).getCustId());
+	}
+
+	public void testConcurrentUpdates() throws Exception {
+		final int customers = 8;
+		final int billsPerCustomer = 250;
+		Thread[] writers = new Thread[customers];
+		for (int i = 0; i < customers; i++) {
+			final int custId = 1000 + i;
+			writers[i] = new Thread(new Runnable() {
+				public void run() {
+					BillDb.addCustomer(new CustomerDataBean(new Integer(custId), "Load", "Test"));
+					for (int j = 0; j < billsPerCustomer; j++) {
+						int billId = custId * 1000 + j;
+						BillDb.update(new BillDataBean(new Integer(billId), new Integer(custId), "LOAD", new BigDecimal("1.00"), null, null));
+					}
+				}
+			});
+			writers[i].start();
+		}
+		for (int i = 0; i < customers; i++) {
+			writers[i].join();
+		}
+
+		for (int i = 0; i < customers; i++) {
+			Collection bills = BillDb.getBills(new Integer(1000 + i));
+			assertEquals(billsPerCustomer, bills.size());
+			Iterator iterator = bills.iterator();
+			int previous = -1;
+			while (iterator.hasNext()) {
+				int billId = ((BillDataBean) iterator.next()).getBillId().intValue();
+				assertTrue(billId > previous);
+				previous = billId;
+			}
+		}
+	}
+
+	public void testUpdateAll() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(3), "Ann", "Lee"));
+		ArrayList beans = new ArrayList();
+		for (int i = 0; i < 10; i++) {
+			beans.add(new BillDataBean(new Integer(300 + i), new Integer(3), "BATCH", new BigDecimal("5.00"), null, null));
+		}
+		BillDb.updateAll(beans);
+		assertEquals(10, BillDb.getBills(new Integer(3)).size());
+	}
+
+	public void testPartitionedWrites() throws Exception {
+		MemoryBillStore store = new MemoryBillStore(4);
+		ArrayList beans = new ArrayList();
+		for (int custId = 13; custId < 21; custId++) {
+			beans.add(new BillDataBean(new Integer(custId * 100), new Integer(custId), "PART", new BigDecimal("5.00"), null, null, 1));
+		}
+		assertTrue(store.compareAndSetAll(beans).isEmpty());
+		assertEquals(8, store.countBills(BillDataBean.NEW));
+
+		BillDataBean stale = new BillDataBean(new Integer(1300), new Integer(13), "PART", new BigDecimal("5.00"), new BigDecimal("5.00"), null, 1);
+		BillDataBean next = store.getBill(new Integer(1400)).nextVersion();
+		next.setAuditedAmount(new BigDecimal("5.00"));
+		List conflicts = store.compareAndSetAll(Arrays.asList(new BillDataBean[] { stale, next }));
+		assertEquals(1, conflicts.size());
+		assertSame(stale, conflicts.get(0));
+		assertEquals(BillDataBean.AUDITED, store.getBill(new Integer(1400)).getStatus());
+		assertEquals(1, store.countBills(BillDataBean.AUDITED));
+
+		try {
+			store.update(new BillDataBean(new Integer(1300), new Integer(14), "PART", new BigDecimal("5.00"), null, null));
+			fail("A bill should not move to another customer");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(1, store.getBills(new Integer(13)).size());
+		assertEquals(1, store.getBills(new Integer(14)).size());
+		store.close();
+	}
+
+	public void testWriteAppliedWholeOrNotAtAll() throws Exception {
+		MemoryBillStore store = new MemoryBillStore(2);
+		store.update(new BillDataBean(new Integer(2501), new Integer(25), "WHOLE", new BigDecimal("1.00"), null, null));
+		try {
+			store.updateAll(Arrays.asList(new BillDataBean[] {
+				new BillDataBean(new Integer(2502), new Integer(25), "WHOLE", new BigDecimal("2.00"), null, null),
+				new BillDataBean(new Integer(2601), new Integer(26), "WHOLE", new BigDecimal("3.00"), null, null),
+				new BillDataBean(new Integer(2501), new Integer(26), "WHOLE", new BigDecimal("1.00"), null, null) }));
+			fail("A bill should not move to another customer");
+		} catch (IllegalArgumentException e) {
+		}
+		assertNull(store.getBill(new Integer(2502)));
+		assertNull(store.getBill(new Integer(2601)));
+		assertEquals(1, store.getCustomerTotals(new Integer(25)).getBillCount());
+
+		BillDataBean first = new BillDataBean(new Integer(2503), new Integer(25), "WHOLE", new BigDecimal("4.00"), null, null, 1);
+		BillDataBean second = first.nextVersion();
+		second.setPaidAmount(new BigDecimal("4.00"));
+		assertTrue(store.compareAndSetAll(Arrays.asList(new BillDataBean[] { first, second })).isEmpty());
+		assertEquals(2, store.getBill(new Integer(2503)).getVersion());
+		assertEquals(400, store.getCustomerTotals(new Integer(25)).getPaidCents());
+
+		store.close();
+		try {
+			store.update(new BillDataBean(new Integer(2504), new Integer(25), "WHOLE", new BigDecimal("5.00"), null, null));
+			fail("A closed store should not take writes");
+		} catch (BillDbException e) {
+		}
+	}
+
+	public void testCustomerTotals() throws Exception {
+		MemoryBillStore store = new MemoryBillStore(2);
+		assertEquals(0, store.getCustomerTotals(new Integer(22)).getBillCount());
+		store.update(new BillDataBean(new Integer(2201), new Integer(22), "TOTAL", new BigDecimal("10.10"), null, null));
+		store.update(new BillDataBean(new Integer(2202), new Integer(22), "TOTAL", new BigDecimal("0.20"), null, null));
+		store.update(new BillDataBean(new Integer(2203), new Integer(23), "OTHER", new BigDecimal("99.00"), null, null));
+
+		BillDataBean audited = store.getBill(new Integer(2201)).nextVersion();
+		audited.setAuditedAmount(new BigDecimal("7.57"));
+		store.update(audited);
+		BillDataBean paid = store.getBill(new Integer(2202)).nextVersion();
+		paid.setPaidAmount(new BigDecimal("0.20"));
+		store.update(paid);
+
+		CustomerTotals totals = store.getCustomerTotals(new Integer(22));
+		assertEquals(2, totals.getBillCount());
+		assertEquals(1030, totals.getBilledCents());
+		assertEquals(757, totals.getAuditedCents());
+		assertEquals(20, totals.getPaidCents());
+		assertEquals(757, totals.getOutstandingCents());
+		assertEquals(new BigDecimal("10.30"), totals.getBilled());
+		assertEquals(9900, store.getCustomerTotals(new Integer(23)).getOutstandingCents());
+		store.close();
+	}
+
+	public void testCompactAmounts() {
+		BillDataBean bean = new BillDataBean(new Integer(2401), new Integer(24), new String("WATER"), new BigDecimal("12.5"), null, null);
+		assertEquals(1250, bean.getAmountCents());
+		assertEquals(new BigDecimal("12.50"), bean.getAmount());
+		assertEquals(BillDataBean.NO_AMOUNT, bean.getAuditedCents());
+		assertNull(bean.getAuditedAmount());
+		assertNull(bean.getPaidAmount());
+		assertSame("WATER", bean.getName());
+		assertEquals(new Integer(2401), bean.getBillId());
+		try {
+			bean.setPaidAmount(new BigDecimal("12.505"));
+			fail("Amounts finer than a cent should be rejected");
+		} catch (ArithmeticException e) {
+		}
+	}
+
+	public void testStatusIndex() {
+		int newBills = BillDb.countBills(BillDataBean.NEW);
+		int audited = BillDb.countBills(BillDataBean.AUDITED);
+		int paid = BillDb.countBills(BillDataBean.PAID);
+
+		BillDb.addCustomer(new CustomerDataBean(new Integer(7), "Index", "Test"));
+		for (int i = 0; i < 10; i++) {
+			BillDb.update(new BillDataBean(new Integer(700 + i), new Integer(7), "INDEXED", new BigDecimal("8.00"), null, null));
+		}
+		assertEquals(newBills + 10, BillDb.countBills(BillDataBean.NEW));
+
+		for (int i = 0; i < 3; i++) {
+			BillDataBean bean = BillDb.getBill(new Integer(700 + i)).nextVersion();
+			bean.setPaidAmount(bean.getAmount());
+			BillDb.update(bean);
+		}
+		for (int i = 3; i < 5; i++) {
+			BillDataBean bean = BillDb.getBill(new Integer(700 + i)).nextVersion();
+			bean.setAuditedAmount(new BigDecimal("6.00"));
+			BillDb.update(bean);
+		}
+		assertEquals(newBills + 5, BillDb.countBills(BillDataBean.NEW));
+		assertEquals(audited + 2, BillDb.countBills(BillDataBean.AUDITED));
+		assertEquals(paid + 3, BillDb.countBills(BillDataBean.PAID));
+
+		Set paidIds = new HashSet();
+		Iterator paidBills = BillDb.getBillsByStatus(BillDataBean.PAID);
+		while (paidBills.hasNext()) {
+			BillDataBean bean = (BillDataBean) paidBills.next();
+			assertEquals(BillDataBean.PAID, bean.getStatus());
+			paidIds.add(bean.getBillId());
+		}
+		assertTrue(paidIds.contains(new Integer(700)));
+		assertTrue(paidIds.contains(new Integer(702)));
+		assertFalse(paidIds.contains(new Integer(703)));
+	}
+
+	public void testStatusIndexGrows() throws Exception {
+		MemoryBillStore store = new MemoryBillStore(1);
+		try {
+			ArrayList beans = new ArrayList();
+			for (int i = 0; i < 3000; i++) {
+				beans.add(new BillDataBean(new Integer(140000 + i * 7), new Integer(90), "GROWN", new BigDecimal("1.00"), null, null));
+			}
+			store.updateAll(beans);
+			ArrayList audited = new ArrayList();
+			for (int i = 0; i < 3000; i += 3) {
+				BillDataBean bean = store.getBill(new Integer(140000 + i * 7)).nextVersion();
+				bean.setAuditedAmount(new BigDecimal("1.00"));
+				audited.add(bean);
+			}
+			store.updateAll(audited);
+
+			assertEquals(2000, store.countBills(BillDataBean.NEW));
+			assertEquals(1000, store.countBills(BillDataBean.AUDITED));
+			int seen = 0;
+			Iterator iterator = store.getBillsByStatus(BillDataBean.AUDITED);
+			while (iterator.hasNext()) {
+				BillDataBean bean = (BillDataBean) iterator.next();
+				assertEquals(0, (bean.getBillId().intValue() - 140000) % 21);
+				seen++;
+			}
+			assertEquals(1000, seen);
+		} finally {
+			store.close();
+		}
+	}
+
+	public void testReadersKeepTheirSnapshot() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(11), "Snap", "Shot"));
+		BillDb.update(new BillDataBean(new Integer(1100), new Integer(11), "SNAP", new BigDecimal("12.00"), null, null));
+		Collection before = BillDb.getBills(new Integer(11));
+		BillDataBean published = BillDb.getBill(new Integer(1100));
+
+		BillDataBean paid = published.nextVersion();
+		paid.setPaidAmount(paid.getAmount());
+		assertTrue(BillDb.compareAndSet(paid));
+		BillDb.update(new BillDataBean(new Integer(1101), new Integer(11), "SNAP", new BigDecimal("13.00"), null, null));
+
+		assertEquals(1, before.size());
+		assertSame(published, before.iterator().next());
+		assertNull(published.getPaidAmount());
+		assertEquals(2, BillDb.getBills(new Integer(11)).size());
+		try {
+			published.setPaidAmount(new BigDecimal("12.00"));
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testLargeCustomerStaysOrdered() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(12), "Large", "Customer"));
+		ArrayList ids = new ArrayList();
+		for (int i = 0; i < 2000; i++) {
+			ids.add(new Integer(120000 + i));
+		}
+		Collections.shuffle(ids, new Random(12));
+		Iterator iterator = ids.iterator();
+		while (iterator.hasNext()) {
+			BillDb.update(new BillDataBean((Integer) iterator.next(), new Integer(12), "LARGE", new BigDecimal("1.00"), null, null));
+		}
+
+		Collection bills = BillDb.getBills(new Integer(12));
+		assertEquals(2000, bills.size());
+		int expected = 120000;
+		iterator = bills.iterator();
+		while (iterator.hasNext()) {
+			assertEquals(expected++, ((BillDataBean) iterator.next()).getBillId().intValue());
+		}
+		List page = BillDb.getBills(new Integer(12), new Integer(121499), 10, null);
+		assertEquals(10, page.size());
+		assertEquals(new Integer(121500), ((BillDataBean) page.get(0)).getBillId());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+package com.extensiblejava.bill.test;
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+
+public class BillEventRingTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { BillEventRingTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	public void testBlockingConsumerSeesEveryEvent() throws Exception {
+		BillEventRing ring = new BillEventRing(8);
+		final List received = Collections.synchronizedList(new ArrayList());
+		final List batchSizes = Collections.synchronizedList(new ArrayList());
+		BillEventRing.Consumer consumer = ring.subscribe("ledger", new BillEventHandler() {
+			public void onEvents(List events) {
+				batchSizes.add(new Integer(events.size()));
+				received.addAll(events);
+				Thread.yield();
+			}
+		}, BillEventRing.BLOCK, 4);
+
+		final BillEventRing shared = ring;
+		Thread[] producers = new Thread[4];
+		for (int i = 0; i < producers.length; i++) {
+			final int first = i * 250;
+			producers[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 250; j++) {
+						shared.publish(bill(first + j));
+					}
+				}
+			});
+			producers[i].start();
+		}
+		for (int i = 0; i < producers.length; i++) {
+			producers[i].join();
+		}
+		waitFor(received, 1000);
+		consumer.close();
+
+		assertEquals(1000, received.size());
+		assertEquals(0, consumer.getDropped());
+		for (int i = 0; i < received.size(); i++) {
+			assertEquals(i, ((BillEvent) received.get(i)).getSequence());
+		}
+		assertTrue(((Integer) Collections.max(batchSizes)).intValue() <= 4);
+	}
+
+	public void testDroppingConsumerNeverHoldsBackPublishers() throws Exception {
+		BillEventRing ring = new BillEventRing(16);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List received = Collections.synchronizedList(new ArrayList());
+		BillEventRing.Consumer consumer = ring.subscribe("analytics", new BillEventHandler() {
+			public void onEvents(List events) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				received.addAll(events);
+			}
+		}, BillEventRing.DROP, 1000);
+
+		for (int i = 0; i < 1000; i++) {
+			ring.publish(bill(i));
+		}
+		release.countDown();
+		long last = ring.publish(bill(1000));
+		long deadline = System.currentTimeMillis() + 5000;
+		while (consumer.getSequence() <= last && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		consumer.close();
+
+		assertTrue(consumer.getDropped() > 0);
+		assertEquals(1001, received.size() + consumer.getDropped());
+		assertEquals(last, ((BillEvent) received.get(received.size() - 1)).getSequence());
+		for (int i = 1; i < received.size(); i++) {
+			BillEvent event = (BillEvent) received.get(i);
+			assertTrue(event.getSequence() > ((BillEvent) received.get(i - 1)).getSequence());
+			assertEquals(event.getSequence(), event.getBill().getBillId().intValue());
+		}
+	}
+
+	public void testBlockedPublisherWaitsWithoutSpinning() throws Exception {
+		BillEventRing ring = new BillEventRing(4);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List received = Collections.synchronizedList(new ArrayList());
+		BillEventRing.Consumer consumer = ring.subscribe("audit", new BillEventHandler() {
+			public void onEvents(List events) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				received.addAll(events);
+			}
+		}, BillEventRing.BLOCK, 1);
+
+		final BillEventRing shared = ring;
+		Thread publisher = new Thread(new Runnable() {
+			public void run() {
+				for (int i = 0; i < 8; i++) {
+					shared.publish(bill(i));
+				}
+			}
+		});
+		publisher.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (publisher.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(Thread.State.WAITING, publisher.getState());
+		release.countDown();
+		publisher.join(5000);
+		assertFalse(publisher.isAlive());
+		waitFor(received, 8);
+		consumer.close();
+		assertEquals(8, received.size());
+	}
+
+	public void testFailingConsumerKeepsConsuming() throws Exception {
+		BillEventRing ring = new BillEventRing(4);
+		final List received = Collections.synchronizedList(new ArrayList());
+		BillEventRing.Consumer consumer = ring.subscribe("fragile", new BillEventHandler() {
+			public void onEvents(List events) {
+				if (((BillEvent) events.get(0)).getSequence() == 0) {
+					throw new AssertionError("bad batch");
+				}
+				received.addAll(events);
+			}
+		}, BillEventRing.BLOCK, 1);
+		for (int i = 0; i < 16; i++) {
+			ring.publish(bill(i));
+		}
+		waitFor(received, 15);
+		consumer.close();
+		assertEquals(15, received.size());
+		assertEquals(1, consumer.getFailures());
+	}
+
+	public void testPaymentsArePublished() throws Exception {
+		final List received = Collections.synchronizedList(new ArrayList());
+		BillEventRing.Consumer consumer = BillDb.getEvents().subscribe("notifications", new BillEventHandler() {
+			public void onEvents(List events) {
+				Iterator iterator = events.iterator();
+				while (iterator.hasNext()) {
+					BillEvent event = (BillEvent) iterator.next();
+					if (event.getBill().getCustId().intValue() == 50) {
+						received.add(event);
+					}
+				}
+			}
+		}, BillEventRing.DROP, 64);
+		try {
+			BillDb.update(new BillDataBean(new Integer(5001), new Integer(50), "EVENT", new BigDecimal("40.00"), null, null));
+			Bill bill = new Bill(BillDb.getBill(new Integer(5001)));
+			bill.audit();
+			bill.pay();
+			waitFor(received, 3);
+		} finally {
+			consumer.close();
+		}
+		assertEquals(BillDataBean.NEW, ((BillEvent) received.get(0)).getStatus());
+		assertEquals(BillDataBean.AUDITED, ((BillEvent) received.get(1)).getStatus());
+		assertEquals(BillDataBean.PAID, ((BillEvent) received.get(2)).getStatus());
+		assertEquals(2, ((BillEvent) received.get(2)).getBill().getVersion());
+	}
+
+	private static BillDataBean bill(int billId) {
+		return new BillDataBean(new Integer(billId), new Integer(51), "RING", new BigDecimal("1.00"), null, null);
+	}
+
+	private static void waitFor(List received, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (received.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+}
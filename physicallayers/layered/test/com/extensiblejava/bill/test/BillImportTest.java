@@ -0,0 +1,137 @@
+package com.extensiblejava.bill.test;
+
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+
+public class BillImportTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { BillImportTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	public void testCsvImport() throws Exception {
+		StringBuffer csv = new StringBuffer("billId,custId,name,amount,auditedAmount,paidAmount\r\n");
+		for (int i = 0; i < 250; i++) {
+			csv.append(13000 + i).append(",30,ELECTRIC,").append(i).append(".5\r\n");
+		}
+		csv.append("13250,31,\"Gas, \"\"North\"\"\",20.00,15.00,\n");
+		csv.append("13251,31,,-3,,-3.00\n");
+		csv.append("13252,33,STRAY,1.00");
+
+		BillDb.addCustomer(new CustomerDataBean(new Integer(30), "Import", "Csv"));
+		BillDb.addCustomer(new CustomerDataBean(new Integer(31), "Import", "Quoted"));
+		int newBills = BillDb.countBills(BillDataBean.NEW);
+		final List reports = new ArrayList();
+		BillImport billImport = new BillImport(BillImport.CSV, 100, new ImportProgress() {
+			public void batchImported(long imported, long skipped, long bytesRead) {
+				reports.add(new Long(imported));
+			}
+		});
+		assertEquals(252, billImport.run(new ByteArrayInputStream(csv.toString().getBytes("UTF-8"))));
+
+		assertEquals(250, BillDb.getBills(new Integer(30)).size());
+		assertEquals(new BigDecimal("249.50"), BillDb.getBill(new Integer(13249)).getAmount());
+		assertSame(BillDb.getBill(new Integer(13000)).getName(), BillDb.getBill(new Integer(13001)).getName());
+		BillDataBean gas = BillDb.getBill(new Integer(13250));
+		assertEquals("Gas, \"North\"", gas.getName());
+		assertEquals(BillDataBean.AUDITED, gas.getStatus());
+		assertEquals(new BigDecimal("-3.00"), BillDb.getBill(new Integer(13251)).getPaidAmount());
+		assertEquals(2, BillDb.getCustomerTotals(new Integer(31)).getBillCount());
+		assertEquals(newBills + 250, BillDb.countBills(BillDataBean.NEW));
+		assertEquals(new Long(252), reports.get(reports.size() - 1));
+		assertEquals(1, billImport.getRejected());
+		assertNull(BillDb.getBill(new Integer(13252)));
+
+		BillImport again = new BillImport(BillImport.CSV, 100, null);
+		assertEquals(0, again.run(new ByteArrayInputStream(csv.toString().getBytes("UTF-8"))));
+		assertEquals(252, again.getSkipped());
+	}
+
+	/*
+	 * A bill the store already holds is skipped whatever its version or customer, as is a bill
+	 * repeated later in the same import.
+	 */
+	public void testImportNeverOverwritesABill() throws Exception {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(34), "Import", "Seeded"));
+		BillDb.addCustomer(new CustomerDataBean(new Integer(35), "Import", "Other"));
+		BillDb.update(new BillDataBean(new Integer(13400), new Integer(34), "SEED", new BigDecimal("10.00"), null, null));
+		BillDb.update(new BillDataBean(new Integer(13401), new Integer(35), "OTHER", new BigDecimal("20.00"), null, null));
+		String csv = "13400,34,EVIL,9999.00\n13401,34,STEAL,1.00\n13402,34,FIRST,2.00\n13402,34,TWICE,3.00\n";
+
+		BillImport billImport = new BillImport(BillImport.CSV, 100, null);
+		assertEquals(1, billImport.run(new ByteArrayInputStream(csv.getBytes("UTF-8"))));
+		assertEquals(3, billImport.getSkipped());
+
+		BillDataBean seeded = BillDb.getBill(new Integer(13400));
+		assertEquals("SEED", seeded.getName());
+		assertEquals(new BigDecimal("10.00"), seeded.getAmount());
+		assertEquals(0, seeded.getVersion());
+		BillDataBean other = BillDb.getBill(new Integer(13401));
+		assertEquals(new Integer(35), other.getCustId());
+		assertEquals(new BigDecimal("20.00"), other.getAmount());
+		assertEquals("FIRST", BillDb.getBill(new Integer(13402)).getName());
+		assertEquals(2, BillDb.getBills(new Integer(34)).size());
+	}
+
+	public void testJsonImport() throws Exception {
+		String json = "{\"billId\": 13300, \"custId\": 32, \"name\": \"Caf\\u00e9\", \"amount\": 10.25, \"note\": [1]}\n";
+		BillDb.addCustomer(new CustomerDataBean(new Integer(32), "Import", "Json"));
+		final List received = Collections.synchronizedList(new ArrayList());
+		BillEventRing.Consumer consumer = BillDb.getEvents().subscribe("import", new BillEventHandler() {
+			public void onEvents(List events) {
+				Iterator iterator = events.iterator();
+				while (iterator.hasNext()) {
+					BillEvent event = (BillEvent) iterator.next();
+					if (event.getBill().getCustId().intValue() == 32) {
+						received.add(event);
+					}
+				}
+			}
+		}, BillEventRing.DROP, 64);
+		try {
+			new BillImport(BillImport.JSONL, 10, null).run(new ByteArrayInputStream(json.getBytes("UTF-8")));
+			fail("Nested values should be rejected");
+		} catch (BillDbException e) {
+			assertTrue(e.getMessage().startsWith("Line 1"));
+		}
+
+		json = "{\"billId\": 13300, \"custId\": 32, \"name\": \"Caf\\u00e9\", \"amount\": 10.25, \"note\": \"x\"}\n"
+			+ "\n"
+			+ "{\"custId\":32,\"billId\":13301,\"amount\":\"7\",\"auditedAmount\":5.1,\"paidAmount\":null,\"name\":null}\n"
+			+ "{\"billId\":13302,\"custId\":32,\"amount\":1.001}\n";
+		BillImport billImport = new BillImport(BillImport.JSONL, 10, null);
+		try {
+			billImport.run(new ByteArrayInputStream(json.getBytes("UTF-8")));
+			fail("Amounts finer than a cent should be rejected");
+		} catch (BillDbException e) {
+			assertTrue(e.getMessage().startsWith("Line 4"));
+		}
+		assertEquals(0, billImport.getImported());
+
+		json = json.substring(0, json.lastIndexOf("{"));
+		try {
+			assertEquals(2, new BillImport(BillImport.JSONL, 10, null).run(new ByteArrayInputStream(json.getBytes("UTF-8"))));
+			long deadline = System.currentTimeMillis() + 5000;
+			while (received.size() < 2 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(5);
+			}
+		} finally {
+			consumer.close();
+		}
+		assertEquals(2, received.size());
+		assertEquals("Caf\u00e9", BillDb.getBill(new Integer(13300)).getName());
+		BillDataBean audited = BillDb.getBill(new Integer(13301));
+		assertEquals(new BigDecimal("7.00"), audited.getAmount());
+		assertEquals(new BigDecimal("5.10"), audited.getAuditedAmount());
+		assertNull(audited.getName());
+		assertEquals(1, audited.getVersion());
+	}
+}
@@ -0,0 +1,200 @@
+package com.extensiblejava.bill.test;
+
+import java.io.*;
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.bill.data.*;
+
+public class BillLogTest extends TestCase
+{
+	private File dir;
+
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { BillLogTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() throws Exception {
+		this.dir = File.createTempFile("billlog", "");
+		this.dir.delete();
+		this.dir.mkdirs();
+	}
+
+	protected void tearDown() {
+		File[] files = this.dir.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			files[i].delete();
+		}
+		this.dir.delete();
+	}
+
+	public void testRecoverLatestState() throws Exception {
+		BillLog log = new BillLog(this.dir, 16, 0, 1024 * 1024);
+		assertTrue(log.recover().isEmpty());
+		log.start();
+		log.append(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null));
+		log.append(new BillDataBean(new Integer(2), new Integer(1), "TWO", new BigDecimal("50.00"), null, null));
+		log.append(new BillDataBean(3, 1, "CREDIT", -4250, BillDataBean.NO_AMOUNT, Long.MAX_VALUE, 7));
+		log.awaitDurable(log.append(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), new BigDecimal("18.75"), new BigDecimal("18.75"))));
+		log.close();
+
+		Map bills = recover();
+		assertEquals(3, bills.size());
+		BillDataBean one = (BillDataBean) bills.get(new Integer(1));
+		assertEquals(new BigDecimal("18.75"), one.getPaidAmount());
+		assertNull(((BillDataBean) bills.get(new Integer(2))).getAuditedAmount());
+		BillDataBean credit = (BillDataBean) bills.get(new Integer(3));
+		assertEquals(-4250, credit.getAmountCents());
+		assertEquals(BillDataBean.NO_AMOUNT, credit.getAuditedCents());
+		assertEquals(Long.MAX_VALUE, credit.getPaidCents());
+		assertEquals(7, credit.getVersion());
+	}
+
+	public void testTornTailIgnored() throws Exception {
+		BillLog log = new BillLog(this.dir, 16, 0, 1024 * 1024);
+		log.recover();
+		log.start();
+		log.awaitDurable(log.append(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null)));
+		log.close();
+
+		File[] files = this.dir.listFiles();
+		FileOutputStream out = new FileOutputStream(files[0], true);
+		out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+		out.close();
+		long tornLength = files[0].length();
+
+		assertEquals(1, recover().size());
+		assertTrue(files[0].length() < tornLength);
+	}
+
+	public void testSnapshotReplacesSegments() throws Exception {
+		BillLog log = new BillLog(this.dir, 16, 0, 256);
+		log.recover();
+		log.start();
+		log.append(new CustomerDataBean(new Integer(1), "Log", "Test"));
+		for (int i = 0; i < 200; i++) {
+			log.awaitDurable(log.append(new BillDataBean(new Integer(i % 20), new Integer(1), "BILL", new BigDecimal(i + ".00"), null, null)));
+		}
+		log.close();
+
+		int snapshots = 0;
+		File[] files = this.dir.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(".snapshot")) {
+				snapshots++;
+			}
+		}
+		assertTrue(snapshots >= 1);
+		assertTrue(files.length < 200);
+
+		Map bills = recover();
+		assertEquals(20, bills.size());
+		for (int i = 180; i < 200; i++) {
+			assertEquals(new BigDecimal(i + ".00"), ((BillDataBean) bills.get(new Integer(i % 20))).getAmount());
+		}
+		Map customers = new HashMap();
+		new BillLog(this.dir, 16, 0, 1024 * 1024).recover(customers);
+		assertEquals("Log", ((CustomerDataBean) customers.get(new Integer(1))).getFirstName());
+	}
+
+	public void testConcurrentGroupCommit() throws Exception {
+		final BillLog log = new BillLog(this.dir, 64, 1, 64 * 1024 * 1024);
+		log.recover();
+		log.start();
+		final int threads = 8;
+		final int updates = 250;
+		Thread[] writers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			final int writer = i;
+			writers[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						for (int j = 0; j < updates; j++) {
+							Integer billId = new Integer(writer * updates + j);
+							log.awaitDurable(log.append(new BillDataBean(billId, new Integer(writer), "LOAD", new BigDecimal("1.00"), null, null)));
+						}
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+			writers[i].start();
+		}
+		for (int i = 0; i < threads; i++) {
+			writers[i].join();
+		}
+		log.close();
+
+		assertEquals(threads * updates, recover().size());
+	}
+
+	public void testTornRecordOnlyTruncatedInLastSegment() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			BillLog log = new BillLog(this.dir, 16, 0, 1024 * 1024);
+			log.recover();
+			log.start();
+			log.awaitDurable(log.append(new BillDataBean(new Integer(i), new Integer(1), "SEGMENT", new BigDecimal("1.00"), null, null)));
+			log.close();
+		}
+		File first = new File(this.dir, "1.log");
+		FileOutputStream out = new FileOutputStream(first, true);
+		out.write(new byte[] { 0, 0, 0, 40, 1, 2, 3 });
+		out.close();
+		long tornLength = first.length();
+
+		try {
+			recover();
+			fail("A torn record before the last segment should not be dropped");
+		} catch (IOException e) {
+		}
+		assertEquals(tornLength, first.length());
+	}
+
+	public void testStoreLogsBeforeApplying() throws Exception {
+		MemoryBillStore store = new MemoryBillStore(2);
+		store.open(this.dir);
+		store.addCustomer(new CustomerDataBean(new Integer(27), "Ahead", "Log"));
+		store.update(new BillDataBean(new Integer(2701), new Integer(27), "AHEAD", new BigDecimal("3.00"), null, null));
+		store.close();
+
+		MemoryBillStore recovered = new MemoryBillStore(2);
+		recovered.open(new BillLog(this.dir, 16, 0, 1024 * 1024) {
+			public void awaitDurable(long seq) throws IOException {
+				throw new IOException("disk gone");
+			}
+		});
+		assertEquals("Ahead", recovered.getCustomer(new Integer(27)).getFirstName());
+		assertEquals(new BigDecimal("3.00"), recovered.getBill(new Integer(2701)).getAmount());
+		try {
+			BillDataBean paid = recovered.getBill(new Integer(2701)).nextVersion();
+			paid.setPaidAmount(new BigDecimal("3.00"));
+			recovered.update(paid);
+			fail("A write that is not durable should fail");
+		} catch (BillDbException e) {
+		}
+		try {
+			recovered.addCustomer(new CustomerDataBean(new Integer(28), "Never", "Stored"));
+			fail("A customer that is not durable should fail");
+		} catch (BillDbException e) {
+		}
+		assertEquals(BillDataBean.NEW, recovered.getBill(new Integer(2701)).getStatus());
+		assertEquals(0, recovered.getCustomerTotals(new Integer(27)).getPaidCents());
+		assertNull(recovered.getCustomer(new Integer(28)));
+		recovered.close();
+	}
+
+	private Map recover() throws IOException {
+		Map bills = new HashMap();
+		Iterator recovered = new BillLog(this.dir, 16, 0, 1024 * 1024).recover().iterator();
+		while (recovered.hasNext()) {
+			BillDataBean bean = (BillDataBean) recovered.next();
+			bills.put(bean.getBillId(), bean);
+		}
+		return bills;
+	}
+}
@@ -5,6 +5,7 @@ import junit.framework.*;
 import junit.textui.*;
 import com.extensiblejava.bill.*;
 import com.extensiblejava.bill.data.*;
+import com.extensiblejava.ui.*;
 import java.math.*;
 
 public class BillTest extends TestCase
@@ -28,6 +29,7 @@ public class BillTest extends TestCase
 		while (bills.hasNext()) {
 			assertNotNull(bills.next());
 		}
+		assertNull(Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(99999))));
 	}
 
 	public void testBillLoader() {
@@ -42,7 +44,7 @@ public class BillTest extends TestCase
 	public void testAudit() {
 		Bill bill = Bill.loadBill(new BillEntityLoader() {
 			public Bill loadBill() {
-				return new Bill(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null));
+				return new Bill(new BillDataBean(new Integer(11), new Integer(10), "ONE", new BigDecimal("25.00"), null, null));
 			}
 		});
 		bill.audit();
@@ -53,7 +55,7 @@ public class BillTest extends TestCase
 	public void testPay() {
 		Bill bill = Bill.loadBill(new BillEntityLoader() {
 			public Bill loadBill() {
-				return new Bill(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null));
+				return new Bill(new BillDataBean(new Integer(12), new Integer(10), "ONE", new BigDecimal("25.00"), null, null));
 			}
 		});
 		bill.pay();
@@ -63,7 +65,7 @@ public class BillTest extends TestCase
 	public void testAuditAfterPay() {
 		Bill bill = Bill.loadBill(new BillEntityLoader() {
 			public Bill loadBill() {
-				return new Bill(new BillDataBean(new Integer(1), new Integer(1), "ONE", new BigDecimal("25.00"), null, null));
+				return new Bill(new BillDataBean(new Integer(13), new Integer(10), "ONE", new BigDecimal("25.00"), null, null));
 			}
 		});
 		bill.pay();
@@ -72,4 +74,84 @@ public class BillTest extends TestCase
 		BigDecimal paidAmountAfter = bill.getPaidAmount();
 		assertEquals(paidAmount, paidAmountAfter);
 	}
-}
+
+	public void testPagedBills() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(6), "Page", "Test"));
+		for (int i = 0; i < 25; i++) {
+			BigDecimal paid = i % 5 == 0 ? new BigDecimal("10.00") : null;
+			BillDb.update(new BillDataBean(new Integer(600 + i), new Integer(6), "PAGED", new BigDecimal("10.00"), null, paid));
+		}
+		Customer cust = Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(6)));
+
+		int pages = 0;
+		int seen = 0;
+		String continuation = null;
+		do {
+			BillPage page = cust.getBills(continuation, 10, null);
+			Iterator bills = page.getBills().iterator();
+			while (bills.hasNext()) {
+				assertEquals(Integer.toString(600 + seen), ((Bill) bills.next()).getBillId());
+				seen++;
+			}
+			continuation = page.getContinuation();
+			pages++;
+		} while (continuation != null);
+		assertEquals(3, pages);
+		assertEquals(25, seen);
+
+		Map nextParams = new CustomerSearchResultsBean(cust, cust.getBills(null, 7, null), null, 7).getNextParams();
+		assertEquals("7", nextParams.get("pageSize"));
+		assertTrue(BillPage.isValid(nextParams.get("page").toString()));
+		assertTrue(BillPage.isValid(null));
+		assertFalse(BillPage.isValid("not a page"));
+
+		BillPage paid = cust.getBills(null, 10, BillDataBean.PAID);
+		assertEquals(5, paid.getBills().size());
+		assertFalse(paid.hasMore());
+		assertEquals("PAID", ((Bill) paid.getBills().get(4)).getStatus());
+	}
+
+	public void testConcurrentPayChargesOnce() throws Exception {
+		BillDb.update(new BillDataBean(new Integer(20), new Integer(10), "TWENTY", new BigDecimal("40.00"), null, null));
+		final int payers = 8;
+		final BigDecimal[] drafts = new BigDecimal[payers];
+		Thread[] threads = new Thread[payers];
+		for (int i = 0; i < payers; i++) {
+			final int payer = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					Bill bill = new Bill(BillDb.getBill(new Integer(20)));
+					bill.pay();
+					drafts[payer] = bill.getPaidAmount();
+				}
+			});
+		}
+		for (int i = 0; i < payers; i++) {
+			threads[i].start();
+		}
+		for (int i = 0; i < payers; i++) {
+			threads[i].join();
+		}
+
+		BillDataBean stored = BillDb.getBill(new Integer(20));
+		assertEquals(1, stored.getVersion());
+		for (int i = 0; i < payers; i++) {
+			assertEquals(new BigDecimal("40.00"), drafts[i]);
+		}
+	}
+
+	public void testStaleAuditRetries() {
+		BillDb.update(new BillDataBean(new Integer(21), new Integer(10), "TWENTY ONE", new BigDecimal("80.00"), null, null));
+		Bill stale = new Bill(BillDb.getBill(new Integer(21)));
+		Bill.loadBill(new BillEntityLoader() {
+			public Bill loadBill() {
+				return new Bill(BillDb.getBill(new Integer(21)));
+			}
+		}).pay();
+
+		stale.audit();
+		assertEquals(new BigDecimal("60.00"), stale.getAuditedAmount());
+		assertEquals(new BigDecimal("80.00"), stale.getPaidAmount());
+		assertEquals(2, BillDb.getBill(new Integer(21)).getVersion());
+	}
+}
\ No newline at end of file
@@ -0,0 +1,52 @@
+package com.extensiblejava.bill.test;
+
+import java.math.*;
+import java.util.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.audit.*;
+import com.extensiblejava.bill.data.*;
+
+public class BulkAuditTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { BulkAuditTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	public void testAuditsEveryNewBill() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(8), "Bulk", "Audit"));
+		for (int i = 0; i < 1000; i++) {
+			BillDb.update(new BillDataBean(new Integer(8000 + i), new Integer(8), "BULK", new BigDecimal("100.00"), null, null));
+		}
+		BillDataBean paid = BillDb.getBill(new Integer(8999)).nextVersion();
+		paid.setPaidAmount(paid.getAmount());
+		BillDb.update(paid);
+
+		final List reports = Collections.synchronizedList(new ArrayList());
+		BulkAudit audit = new BulkAudit(4, 64, new AuditProgress() {
+			public void batchAudited(long audited, long total) {
+				reports.add(Long.valueOf(audited));
+			}
+		});
+		long audited = audit.run();
+
+		assertTrue(audited >= 999);
+		for (int i = 0; i < 999; i++) {
+			BillDataBean bean = BillDb.getBill(new Integer(8000 + i));
+			assertEquals(BillDataBean.AUDITED, bean.getStatus());
+			assertEquals(1, bean.getVersion());
+		}
+		assertEquals(new BigDecimal("75.00"), BillDb.getBill(new Integer(8000)).getAuditedAmount());
+		assertEquals(BillDataBean.PAID, BillDb.getBill(new Integer(8999)).getStatus());
+		assertNull(BillDb.getBill(new Integer(8999)).getAuditedAmount());
+		assertFalse(reports.isEmpty());
+		assertEquals(Long.valueOf(audited), Collections.max(reports));
+
+		new BulkAudit(2, 64, null).run();
+		assertEquals(1, BillDb.getBill(new Integer(8000)).getVersion());
+		assertEquals(1, BillDb.getBill(new Integer(8998)).getVersion());
+	}
+}
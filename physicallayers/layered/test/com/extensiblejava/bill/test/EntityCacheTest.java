@@ -0,0 +1,74 @@
+package com.extensiblejava.bill.test;
+
+import java.math.*;
+import java.util.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+
+public class EntityCacheTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { EntityCacheTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	protected void setUp() {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(5), "Cache", "Test"));
+		for (int i = 0; i < 100; i++) {
+			BillDb.update(new BillDataBean(new Integer(500 + i), new Integer(5), "CACHED", new BigDecimal("40.00"), null, null));
+		}
+	}
+
+	public void testBillIdentity() {
+		EntityCache cache = new EntityCache(64);
+		Bill first = cache.getBill(new Integer(500));
+		Bill second = cache.getBill(new Integer(500));
+		assertSame(first, second);
+		assertEquals(1, cache.getBillHits());
+		assertEquals(1, cache.getBillMisses());
+		assertEquals(0.5, cache.getBillHitRate(), 0.0001);
+		assertNull(cache.getBill(new Integer(-1)));
+	}
+
+	public void testNewerBeanReplacesCachedBill() {
+		EntityCache cache = new EntityCache(64);
+		Bill cached = cache.getBill(new Integer(501));
+		BillDataBean stored = BillDb.getBill(new Integer(501));
+		assertSame(cached, cache.getBill(stored));
+
+		BillDataBean paid = stored.nextVersion();
+		paid.setPaidAmount(new BigDecimal("40.00"));
+		Bill newer = cache.getBill(paid);
+		assertNotSame(cached, newer);
+		assertEquals("PAID", newer.getStatus());
+		assertSame(newer, cache.getBill(new Integer(501)));
+		assertSame(newer, cache.getBill(stored));
+	}
+
+	public void testBounded() {
+		EntityCache cache = new EntityCache(32);
+		for (int i = 0; i < 100; i++) {
+			assertNotNull(cache.getBill(new Integer(500 + i)));
+		}
+		assertTrue(cache.getBillCount() <= 32);
+	}
+
+	public void testPersistRefreshesCustomer() {
+		EntityCache.getInstance().invalidateCustomer(new Integer(5));
+		Customer customer = Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(5)));
+		assertSame(customer, Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(5))));
+
+		Bill bill = (Bill) customer.getBills().get(0);
+		bill.pay();
+
+		Customer reloaded = Customer.loadCustomer(new DefaultCustomerEntityLoader(new Integer(5)));
+		assertNotSame(customer, reloaded);
+		Bill reloadedBill = (Bill) reloaded.getBills().get(0);
+		assertSame(bill, reloadedBill);
+		assertEquals("PAID", reloadedBill.getStatus());
+	}
+}
@@ -0,0 +1,423 @@
+package com.extensiblejava.bill.test;
+
+import java.lang.reflect.*;
+import java.math.*;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * Just enough of a JDBC driver to run JdbcBillStore without a database: in-memory CUSTOMER and
+ * BILL tables behind proxies that recognise the store's own statements. A transaction works on
+ * a copy of the tables, and, as in PostgreSQL, a statement that fails inside a transaction
+ * aborts it until it is rolled back, to a savepoint or altogether.
+ */
+public class FakeJdbc implements Driver {
+	private static int databases;
+
+	private String url;
+	private Tables committed = new Tables();
+	private boolean schemaCreated;
+	private boolean batchCountsUnknown;
+	private Object[] racingBill;
+
+	private FakeJdbc(String url) {
+		this.url = url;
+	}
+
+	public static synchronized FakeJdbc register() throws SQLException {
+		FakeJdbc database = new FakeJdbc("jdbc:fake:" + (++databases));
+		DriverManager.registerDriver(database);
+		return database;
+	}
+
+	public void deregister() throws SQLException {
+		DriverManager.deregisterDriver(this);
+	}
+
+	public String getUrl() { return this.url; }
+
+	//Makes every batch report SUCCESS_NO_INFO instead of its row counts, as some drivers do.
+	public void setBatchCountsUnknown(boolean batchCountsUnknown) { this.batchCountsUnknown = batchCountsUnknown; }
+
+	//Stores a bill as another writer would, outside any connection.
+	public synchronized void putBill(int billId, int custId, String amount, long version) {
+		this.committed.bills.put(new Integer(billId), new Object[] { new Integer(custId), "OTHER", new BigDecimal(amount), null, null, new Long(version) });
+	}
+
+	//Has another writer store a bill just before the next INSERT of it, as if it won the race to insert it.
+	public synchronized void putBillBeforeInsert(int billId, int custId, String amount, long version) {
+		this.racingBill = new Object[] { new Integer(billId), new Object[] { new Integer(custId), "OTHER", new BigDecimal(amount), null, null, new Long(version) } };
+	}
+
+	public synchronized int countBills() {
+		return this.committed.bills.size();
+	}
+
+	public Connection connect(String url, Properties info) {
+		if (!acceptsURL(url)) {
+			return null;
+		}
+		return (Connection) proxy(Connection.class, new ConnectionHandler());
+	}
+
+	public boolean acceptsURL(String url) { return this.url.equals(url); }
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) { return new DriverPropertyInfo[0]; }
+	public int getMajorVersion() { return 1; }
+	public int getMinorVersion() { return 0; }
+	public boolean jdbcCompliant() { return false; }
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException { throw new SQLFeatureNotSupportedException(); }
+
+	private static Object proxy(Class type, InvocationHandler handler) {
+		return Proxy.newProxyInstance(FakeJdbc.class.getClassLoader(), new Class[] { type }, handler);
+	}
+
+	private static class Tables {
+		private TreeMap customers = new TreeMap();
+		private TreeMap bills = new TreeMap();
+
+		Tables copy() {
+			Tables copy = new Tables();
+			copy.customers.putAll(this.customers);
+			copy.bills.putAll(this.bills);
+			return copy;
+		}
+	}
+
+	private synchronized Tables snapshot() {
+		return this.committed.copy();
+	}
+
+	private synchronized void commit(Tables tables) {
+		this.committed = tables;
+	}
+
+	/*
+	 * Runs one of the store's statements against the tables. Returns the rows of a query or the
+	 * Integer count of an update.
+	 */
+	private synchronized Object execute(Tables tables, String sql, Object[] p) throws SQLException {
+		if (sql.startsWith("CREATE")) {
+			this.schemaCreated = true;
+			return new Integer(0);
+		}
+		if (sql.startsWith("SELECT FIRST_NAME")) {
+			String[] customer = (String[]) tables.customers.get(p[1]);
+			return customer == null ? new ArrayList() : rows(new Object[] { customer[0], customer[1] });
+		}
+		if (sql.startsWith("UPDATE CUSTOMER")) {
+			if (!tables.customers.containsKey(p[3])) {
+				return new Integer(0);
+			}
+			tables.customers.put(p[3], new String[] { (String) p[1], (String) p[2] });
+			return new Integer(1);
+		}
+		if (sql.startsWith("INSERT INTO CUSTOMER")) {
+			if (tables.customers.containsKey(p[3])) {
+				throw new SQLException("duplicate key value violates unique constraint", "23505");
+			}
+			tables.customers.put(p[3], new String[] { (String) p[1], (String) p[2] });
+			return new Integer(1);
+		}
+		if (sql.startsWith("SELECT VERSION")) {
+			Object[] row = (Object[]) tables.bills.get(p[1]);
+			return row == null ? new ArrayList() : rows(new Object[] { row[5] });
+		}
+		if (sql.startsWith("SELECT COUNT(*), SUM")) {
+			return rows(totals(tables, (Integer) p[1]));
+		}
+		if (sql.startsWith("SELECT COUNT(*)")) {
+			int count = 0;
+			Iterator rows = tables.bills.values().iterator();
+			while (rows.hasNext()) {
+				if (hasStatus(sql, (Object[]) rows.next())) {
+					count++;
+				}
+			}
+			return rows(new Object[] { new Integer(count) });
+		}
+		if (sql.startsWith("SELECT BILL_ID")) {
+			ArrayList result = new ArrayList();
+			Iterator entries = tables.bills.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry entry = (Map.Entry) entries.next();
+				int billId = ((Integer) entry.getKey()).intValue();
+				Object[] row = (Object[]) entry.getValue();
+				boolean match;
+				if (sql.indexOf("WHERE BILL_ID = ?") >= 0) {
+					match = billId == ((Integer) p[1]).intValue();
+				} else if (sql.indexOf("WHERE CUST_ID = ? AND BILL_ID > ?") >= 0) {
+					match = row[0].equals(p[1]) && billId > ((Integer) p[2]).intValue() && hasStatus(sql, row);
+				} else if (sql.indexOf("WHERE CUST_ID = ?") >= 0) {
+					match = row[0].equals(p[1]);
+				} else {
+					match = billId > ((Integer) p[1]).intValue() && hasStatus(sql, row);
+				}
+				if (match) {
+					result.add(new Object[] { entry.getKey(), row[0], row[1], row[2], row[3], row[4], row[5] });
+				}
+			}
+			return result;
+		}
+		if (sql.startsWith("UPDATE BILL")) {
+			Object[] row = (Object[]) tables.bills.get(p[7]);
+			if (row == null || (sql.indexOf("AND VERSION = ?") >= 0 && !row[5].equals(p[8]))) {
+				return new Integer(0);
+			}
+			tables.bills.put(p[7], new Object[] { p[1], p[2], p[3], p[4], p[5], p[6] });
+			return new Integer(1);
+		}
+		if (sql.startsWith("INSERT INTO BILL")) {
+			if (this.racingBill != null && this.racingBill[0].equals(p[7])) {
+				tables.bills.put(this.racingBill[0], this.racingBill[1]);
+				this.committed.bills.put(this.racingBill[0], this.racingBill[1]);
+				this.racingBill = null;
+			}
+			if (tables.bills.containsKey(p[7])) {
+				throw new SQLException("duplicate key value violates unique constraint", "23505");
+			}
+			tables.bills.put(p[7], new Object[] { p[1], p[2], p[3], p[4], p[5], p[6] });
+			return new Integer(1);
+		}
+		throw new SQLException("Unexpected statement: " + sql);
+	}
+
+	private static boolean hasStatus(String sql, Object[] row) {
+		if (sql.indexOf("PAID_AMOUNT IS NOT NULL") >= 0) {
+			return row[4] != null;
+		}
+		if (sql.indexOf("AUDITED_AMOUNT IS NOT NULL") >= 0) {
+			return row[4] == null && row[3] != null;
+		}
+		if (sql.indexOf("AUDITED_AMOUNT IS NULL") >= 0) {
+			return row[4] == null && row[3] == null;
+		}
+		return true;
+	}
+
+	//COUNT(*) and the SUMs of SELECT_TOTALS; as in SQL a SUM over no values is null.
+	private static Object[] totals(Tables tables, Integer custId) {
+		int count = 0;
+		BigDecimal[] sums = new BigDecimal[4];
+		Iterator rows = tables.bills.values().iterator();
+		while (rows.hasNext()) {
+			Object[] row = (Object[]) rows.next();
+			if (!row[0].equals(custId)) {
+				continue;
+			}
+			count++;
+			Object[] values = { row[2], row[3], row[4], row[4] != null ? BigDecimal.ZERO : (row[3] != null ? row[3] : row[2]) };
+			for (int i = 0; i < sums.length; i++) {
+				if (values[i] != null) {
+					sums[i] = sums[i] == null ? (BigDecimal) values[i] : sums[i].add((BigDecimal) values[i]);
+				}
+			}
+		}
+		return new Object[] { new Integer(count), sums[0], sums[1], sums[2], sums[3] };
+	}
+
+	private static List rows(Object[] row) {
+		ArrayList rows = new ArrayList();
+		rows.add(row);
+		return rows;
+	}
+
+	private class ConnectionHandler implements InvocationHandler {
+		private Tables transaction;
+		private boolean aborted;
+		private HashMap savepoints = new HashMap();
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				return identity(proxy, method, args);
+			}
+			if (name.equals("prepareStatement")) {
+				return proxy(PreparedStatement.class, new StatementHandler(this, (String) args[0]));
+			}
+			if (name.equals("createStatement")) {
+				return proxy(Statement.class, new StatementHandler(this, null));
+			}
+			if (name.equals("getMetaData")) {
+				return proxy(DatabaseMetaData.class, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getDeclaringClass() == Object.class) {
+							return identity(proxy, method, args);
+						}
+						if (!method.getName().equals("getTables")) {
+							throw new UnsupportedOperationException(method.getName());
+						}
+						return resultSet(schemaCreated ? rows(new Object[] { "BILL" }) : new ArrayList());
+					}
+				});
+			}
+			if (name.equals("getAutoCommit")) {
+				return Boolean.valueOf(this.transaction == null);
+			}
+			if (name.equals("setAutoCommit")) {
+				boolean autoCommit = ((Boolean) args[0]).booleanValue();
+				if (autoCommit && this.transaction != null) {
+					commitTransaction();
+					this.transaction = null;
+				} else if (!autoCommit && this.transaction == null) {
+					this.transaction = snapshot();
+				}
+				return null;
+			}
+			if (name.equals("commit")) {
+				commitTransaction();
+				return null;
+			}
+			if (name.equals("rollback")) {
+				if (args == null) {
+					this.transaction = snapshot();
+					this.savepoints.clear();
+				} else {
+					this.transaction = ((Tables) this.savepoints.get(args[0])).copy();
+				}
+				this.aborted = false;
+				return null;
+			}
+			if (name.equals("setSavepoint")) {
+				if (this.aborted) {
+					throw new SQLException("current transaction is aborted", "25P02");
+				}
+				Savepoint savepoint = new Savepoint() {
+					public int getSavepointId() { return savepoints.size(); }
+					public String getSavepointName() { return null; }
+				};
+				this.savepoints.put(savepoint, this.transaction.copy());
+				return savepoint;
+			}
+			if (name.equals("releaseSavepoint")) {
+				this.savepoints.remove(args[0]);
+				return null;
+			}
+			if (name.equals("close")) {
+				return null;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+
+		private void commitTransaction() throws SQLException {
+			if (this.aborted) {
+				this.transaction = snapshot();
+				this.aborted = false;
+				throw new SQLException("current transaction is aborted, commit rolled back", "25P02");
+			}
+			commit(this.transaction);
+			this.transaction = snapshot();
+			this.savepoints.clear();
+		}
+
+		Object run(String sql, Object[] parameters) throws SQLException {
+			if (this.aborted) {
+				throw new SQLException("current transaction is aborted, commands ignored until end of transaction block", "25P02");
+			}
+			if (this.transaction == null) {
+				synchronized (FakeJdbc.this) {
+					Tables tables = snapshot();
+					Object result = execute(tables, sql, parameters);
+					commit(tables);
+					return result;
+				}
+			}
+			try {
+				return execute(this.transaction, sql, parameters);
+			} catch (SQLException e) {
+				this.aborted = true;
+				throw e;
+			}
+		}
+	}
+
+	private class StatementHandler implements InvocationHandler {
+		private ConnectionHandler connection;
+		private String sql;
+		private Object[] parameters = new Object[10];
+		private ArrayList batch = new ArrayList();
+
+		StatementHandler(ConnectionHandler connection, String sql) {
+			this.connection = connection;
+			this.sql = sql;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (method.getDeclaringClass() == Object.class) {
+				return identity(proxy, method, args);
+			}
+			if (name.startsWith("set") && args.length == 2 && args[0] instanceof Integer) {
+				this.parameters[((Integer) args[0]).intValue()] = args[1];
+				return null;
+			}
+			if (name.equals("setMaxRows") || name.equals("close") || name.equals("clearParameters")) {
+				return null;
+			}
+			if (name.equals("addBatch")) {
+				this.batch.add(this.parameters.clone());
+				return null;
+			}
+			if (name.equals("executeBatch")) {
+				int[] counts = new int[this.batch.size()];
+				try {
+					for (int i = 0; i < counts.length; i++) {
+						counts[i] = ((Integer) this.connection.run(this.sql, (Object[]) this.batch.get(i))).intValue();
+						if (batchCountsUnknown) {
+							counts[i] = Statement.SUCCESS_NO_INFO;
+						}
+					}
+				} finally {
+					this.batch.clear();
+				}
+				return counts;
+			}
+			if (name.equals("executeUpdate")) {
+				return this.connection.run(args == null ? this.sql : (String) args[0], this.parameters);
+			}
+			if (name.equals("executeQuery")) {
+				return resultSet((List) this.connection.run(this.sql, this.parameters));
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private static ResultSet resultSet(final List rows) {
+		return (ResultSet) proxy(ResultSet.class, new InvocationHandler() {
+			private int row = -1;
+
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				String name = method.getName();
+				if (method.getDeclaringClass() == Object.class) {
+					return identity(proxy, method, args);
+				}
+				if (name.equals("next")) {
+					return Boolean.valueOf(++this.row < rows.size());
+				}
+				if (name.equals("close")) {
+					return null;
+				}
+				Object value = ((Object[]) rows.get(this.row))[((Integer) args[0]).intValue() - 1];
+				if (name.equals("getInt")) {
+					return new Integer(value == null ? 0 : ((Number) value).intValue());
+				}
+				if (name.equals("getLong")) {
+					return new Long(value == null ? 0 : ((Number) value).longValue());
+				}
+				if (name.equals("getString") || name.equals("getBigDecimal")) {
+					return value;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	private static Object identity(Object proxy, Method method, Object[] args) {
+		if (method.getName().equals("equals")) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if (method.getName().equals("hashCode")) {
+			return new Integer(System.identityHashCode(proxy));
+		}
+		return "FakeJdbc " + method.getDeclaringClass().getName();
+	}
+}
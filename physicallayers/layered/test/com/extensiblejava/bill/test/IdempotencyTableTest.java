@@ -0,0 +1,143 @@
+package com.extensiblejava.bill.test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.ui.*;
+
+public class IdempotencyTableTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { IdempotencyTableTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	public void testConcurrentDuplicatesRunOnce() throws Exception {
+		final IdempotencyTable table = new IdempotencyTable(100, 60000);
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable work = new Callable() {
+			public Object call() throws Exception {
+				runs.incrementAndGet();
+				release.await();
+				return "PAID";
+			}
+		};
+		final Object[] results = new Object[6];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int request = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						results[request] = table.execute("key-1", work);
+					} catch (Exception e) {
+						results[request] = e;
+					}
+				}
+			});
+			threads[i].start();
+		}
+		Thread.sleep(100);
+		release.countDown();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+
+		assertEquals(1, runs.get());
+		for (int i = 0; i < results.length; i++) {
+			assertEquals("PAID", results[i]);
+		}
+		assertEquals("PAID", table.execute("key-1", work));
+		assertEquals(1, runs.get());
+	}
+
+	public void testFailureIsNotRemembered() throws Exception {
+		IdempotencyTable table = new IdempotencyTable(100, 60000);
+		try {
+			table.execute("key-2", new Callable() {
+				public Object call() throws Exception {
+					throw new IllegalStateException("declined");
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals("RETRIED", table.execute("key-2", new Callable() {
+			public Object call() {
+				return "RETRIED";
+			}
+		}));
+	}
+
+	public void testExpiryAndBound() throws Exception {
+		final AtomicInteger runs = new AtomicInteger();
+		Callable work = new Callable() {
+			public Object call() {
+				return new Integer(runs.incrementAndGet());
+			}
+		};
+		IdempotencyTable expiring = new IdempotencyTable(100, 20);
+		assertEquals(new Integer(1), expiring.execute("key-3", work));
+		Thread.sleep(50);
+		assertEquals(new Integer(2), expiring.execute("key-3", work));
+
+		IdempotencyTable bounded = new IdempotencyTable(10, 60000);
+		for (int i = 0; i < 50; i++) {
+			bounded.execute("key-" + i, work);
+		}
+		assertTrue(bounded.size() <= 10);
+	}
+
+	public void testRunningRequestIsNeverEvicted() throws Exception {
+		final IdempotencyTable table = new IdempotencyTable(1, 60000);
+		final AtomicInteger runs = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable slow = new Callable() {
+			public Object call() throws Exception {
+				runs.incrementAndGet();
+				release.await();
+				return "SLOW";
+			}
+		};
+		final Object[] results = new Object[2];
+		Thread[] threads = new Thread[results.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int request = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					try {
+						results[request] = table.execute("slow", slow);
+					} catch (Exception e) {
+						results[request] = e;
+					}
+				}
+			});
+		}
+		threads[0].start();
+		while (runs.get() == 0) {
+			Thread.sleep(5);
+		}
+		for (int i = 0; i < 5; i++) {
+			table.execute("fast-" + i, new Callable() {
+				public Object call() {
+					return "FAST";
+				}
+			});
+		}
+		threads[1].start();
+		Thread.sleep(50);
+		release.countDown();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+		}
+
+		assertEquals(1, runs.get());
+		assertEquals("SLOW", results[0]);
+		assertEquals("SLOW", results[1]);
+	}
+}
@@ -0,0 +1,202 @@
+package com.extensiblejava.bill.test;
+
+import java.math.*;
+import java.util.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.bill.data.*;
+
+public class JdbcBillStoreTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { JdbcBillStoreTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	private FakeJdbc database;
+	private ConnectionPool pool;
+	private JdbcBillStore store;
+
+	protected void setUp() throws Exception {
+		this.database = FakeJdbc.register();
+		this.pool = new ConnectionPool(this.database.getUrl(), null, null, 2);
+		this.store = new JdbcBillStore(this.pool);
+	}
+
+	protected void tearDown() throws Exception {
+		this.pool.close();
+		this.database.deregister();
+	}
+
+	public void testCustomersAndBillsRoundTrip() throws Exception {
+		this.store.addCustomer(new CustomerDataBean(new Integer(60), "Ada", "Byron"));
+		this.store.addCustomer(new CustomerDataBean(new Integer(60), "Ada", "Lovelace"));
+		assertEquals("Lovelace", this.store.getCustomer(new Integer(60)).getLastName());
+		assertNull(this.store.getCustomer(new Integer(61)));
+
+		this.store.update(bill(6002, 60, "20.00", null, null));
+		this.store.update(bill(6001, 60, "10.00", "7.50", null));
+		this.store.update(bill(6003, 60, "30.00", "30.00", "30.00"));
+		this.store.update(bill(6002, 60, "25.00", null, null));
+
+		List bills = new ArrayList(this.store.getBills(new Integer(60)));
+		assertEquals(3, bills.size());
+		assertEquals(new Integer(6001), ((BillDataBean) bills.get(0)).getBillId());
+		assertEquals(new BigDecimal("25.00"), this.store.getBill(new Integer(6002)).getAmount());
+		assertNull(this.store.getBill(new Integer(6004)));
+
+		CustomerTotals totals = this.store.getCustomerTotals(new Integer(60));
+		assertEquals(3, totals.getBillCount());
+		assertEquals(6500, totals.getBilledCents());
+		assertEquals(3750, totals.getAuditedCents());
+		assertEquals(3000, totals.getPaidCents());
+		assertEquals(3250, totals.getOutstandingCents());
+		assertEquals(0, this.store.getCustomerTotals(new Integer(61)).getBillCount());
+
+		List audited = this.store.getBills(new Integer(60), null, 10, BillDataBean.AUDITED);
+		assertEquals(1, audited.size());
+		assertEquals(new Integer(6001), ((BillDataBean) audited.get(0)).getBillId());
+		List page = this.store.getBills(new Integer(60), new Integer(6001), 1, null);
+		assertEquals(1, page.size());
+		assertEquals(new Integer(6002), ((BillDataBean) page.get(0)).getBillId());
+	}
+
+	public void testBillsByStatusAreReadAPageAtATime() throws Exception {
+		ArrayList beans = new ArrayList();
+		for (int i = 0; i < 2500; i++) {
+			beans.add(bill(10000 + i, 62, "1.00", i % 2 == 0 ? null : "1.00", null));
+		}
+		this.store.updateAll(beans);
+
+		assertEquals(1250, this.store.countBills(BillDataBean.NEW));
+		assertEquals(1250, this.store.countBills(BillDataBean.AUDITED));
+		assertEquals(0, this.store.countBills(BillDataBean.PAID));
+		int count = 0;
+		int last = 0;
+		Iterator iterator = this.store.getBillsByStatus(BillDataBean.NEW);
+		while (iterator.hasNext()) {
+			BillDataBean bean = (BillDataBean) iterator.next();
+			assertTrue(bean.getBillId().intValue() > last);
+			assertEquals(BillDataBean.NEW, bean.getStatus());
+			last = bean.getBillId().intValue();
+			count++;
+		}
+		assertEquals(1250, count);
+		try {
+			this.store.countBills("LOST");
+			fail("An unknown status should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testUpdateAllWithoutBatchCounts() throws Exception {
+		this.database.setBatchCountsUnknown(true);
+		this.store.update(bill(6101, 63, "10.00", null, null));
+
+		ArrayList beans = new ArrayList();
+		beans.add(bill(6101, 63, "11.00", null, null));
+		beans.add(bill(6102, 63, "12.00", null, null));
+		this.store.updateAll(beans);
+
+		assertEquals(2, this.database.countBills());
+		assertEquals(new BigDecimal("11.00"), this.store.getBill(new Integer(6101)).getAmount());
+		assertEquals(new BigDecimal("12.00"), this.store.getBill(new Integer(6102)).getAmount());
+	}
+
+	public void testCompareAndSetAll() throws Exception {
+		checkCompareAndSetAll(false);
+	}
+
+	public void testCompareAndSetAllWithoutBatchCounts() throws Exception {
+		checkCompareAndSetAll(true);
+	}
+
+	/*
+	 * Without row counts a first version that matched a bill stored before versioning began
+	 * must be read back as stored, not inserted again and reported as a conflict.
+	 */
+	public void testCompareAndSetAllOverUnversionedBillWithoutBatchCounts() throws Exception {
+		this.database.setBatchCountsUnknown(true);
+		this.database.putBill(6301, 65, "10.00", 0);
+		BillDataBean paid = new BillDataBean(new Integer(6301), new Integer(65), "OTHER", new BigDecimal("10.00"), null, null).nextVersion();
+		paid.setPaidAmount(new BigDecimal("10.00"));
+		ArrayList beans = new ArrayList();
+		beans.add(paid);
+
+		assertTrue(this.store.compareAndSetAll(beans).isEmpty());
+		BillDataBean stored = this.store.getBill(new Integer(6301));
+		assertEquals(1, stored.getVersion());
+		assertEquals(new BigDecimal("10.00"), stored.getPaidAmount());
+	}
+
+	public void testUpdateOverwritesABillInsertedConcurrently() throws Exception {
+		this.database.putBillBeforeInsert(6401, 66, "1.00", 3);
+		this.store.update(bill(6401, 66, "40.00", null, null));
+		assertEquals(new BigDecimal("40.00"), this.store.getBill(new Integer(6401)).getAmount());
+
+		this.database.putBillBeforeInsert(6403, 66, "1.00", 3);
+		ArrayList beans = new ArrayList();
+		beans.add(bill(6402, 66, "41.00", null, null));
+		beans.add(bill(6403, 66, "42.00", null, null));
+		this.store.updateAll(beans);
+		assertEquals(3, this.database.countBills());
+		assertEquals(new BigDecimal("41.00"), this.store.getBill(new Integer(6402)).getAmount());
+		assertEquals(new BigDecimal("42.00"), this.store.getBill(new Integer(6403)).getAmount());
+	}
+
+	public void testInsertAllSkipsExistingBills() throws Exception {
+		this.database.putBill(6501, 67, "5.00", 0);
+		BillDataBean existing = bill(6501, 67, "50.00", null, null).nextVersion();
+		ArrayList beans = new ArrayList();
+		beans.add(existing);
+		beans.add(bill(6502, 67, "51.00", null, null).nextVersion());
+
+		List skipped = this.store.insertAll(beans);
+		assertEquals(1, skipped.size());
+		assertSame(existing, skipped.get(0));
+		assertEquals(new BigDecimal("5.00"), this.store.getBill(new Integer(6501)).getAmount());
+		assertEquals(new BigDecimal("51.00"), this.store.getBill(new Integer(6502)).getAmount());
+	}
+
+	/*
+	 * A stale version and a first version another writer already inserted are conflicts; the
+	 * rest of the batch still commits.
+	 */
+	private void checkCompareAndSetAll(boolean batchCountsUnknown) throws Exception {
+		this.database.setBatchCountsUnknown(batchCountsUnknown);
+		BillDataBean first = bill(6201, 64, "10.00", null, null).nextVersion();
+		assertTrue(this.store.compareAndSet(first));
+		assertFalse(this.store.compareAndSet(bill(6201, 64, "99.00", null, null).nextVersion()));
+		this.database.putBill(6203, 64, "5.00", 1);
+		this.database.putBill(6204, 64, "6.00", 1);
+
+		BillDataBean audited = first.nextVersion();
+		audited.setAuditedAmount(new BigDecimal("9.00"));
+		BillDataBean stale = bill(6204, 64, "60.00", null, null).nextVersion().nextVersion().nextVersion();
+		BillDataBean fresh = bill(6202, 64, "20.00", null, null).nextVersion();
+		BillDataBean raced = bill(6203, 64, "30.00", null, null).nextVersion();
+		ArrayList beans = new ArrayList();
+		beans.add(audited);
+		beans.add(stale);
+		beans.add(fresh);
+		beans.add(raced);
+		List conflicts = this.store.compareAndSetAll(beans);
+
+		assertEquals(2, conflicts.size());
+		assertSame(stale, conflicts.get(0));
+		assertSame(raced, conflicts.get(1));
+		BillDataBean stored = this.store.getBill(new Integer(6201));
+		assertEquals(2, stored.getVersion());
+		assertEquals(new BigDecimal("9.00"), stored.getAuditedAmount());
+		assertEquals(new BigDecimal("20.00"), this.store.getBill(new Integer(6202)).getAmount());
+		assertEquals(new BigDecimal("5.00"), this.store.getBill(new Integer(6203)).getAmount());
+		assertEquals(new BigDecimal("6.00"), this.store.getBill(new Integer(6204)).getAmount());
+	}
+
+	private static BillDataBean bill(int billId, int custId, String amount, String audited, String paid) {
+		return new BillDataBean(new Integer(billId), new Integer(custId), "JDBC", new BigDecimal(amount),
+			audited == null ? null : new BigDecimal(audited), paid == null ? null : new BigDecimal(paid));
+	}
+}
@@ -0,0 +1,116 @@
+package com.extensiblejava.bill.test;
+
+import java.math.*;
+import java.util.*;
+import java.util.concurrent.*;
+import junit.framework.*;
+import junit.textui.*;
+import com.extensiblejava.bill.*;
+import com.extensiblejava.bill.data.*;
+import com.extensiblejava.financial.*;
+
+public class PaymentExecutorTest extends TestCase
+{
+	public static void main(String[] args)
+	{
+		String[] testCaseName = { PaymentExecutorTest.class.getName() };
+
+		junit.textui.TestRunner.main(testCaseName);
+	}
+
+	public void testCoalescesPerCustomer() throws Exception {
+		for (int c = 0; c < 3; c++) {
+			Integer custId = new Integer(90 + c);
+			BillDb.addCustomer(new CustomerDataBean(custId, "Pay", "Test"));
+			for (int i = 0; i < 10; i++) {
+				BillDb.update(new BillDataBean(new Integer(9000 + c * 100 + i), custId, "PAY", new BigDecimal("10.00"), null, null));
+			}
+		}
+
+		final List drafts = Collections.synchronizedList(new ArrayList());
+		PaymentExecutor executor = new PaymentExecutor(200, 100, new PaymentRail() {
+			public void issue(Draft draft) {
+				drafts.add(draft);
+			}
+		});
+		ArrayList futures = new ArrayList();
+		for (int c = 0; c < 3; c++) {
+			for (int i = 0; i < 10; i++) {
+				Bill bill = EntityCache.getInstance().getBill(new Integer(9000 + c * 100 + i));
+				futures.add(executor.pay(bill));
+			}
+		}
+		Bill duplicate = EntityCache.getInstance().getBill(new Integer(9000));
+		assertSame(futures.get(0), executor.pay(duplicate));
+
+		for (int i = 0; i < futures.size(); i++) {
+			assertEquals(new BigDecimal("10.00"), ((Future) futures.get(i)).get(5, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+
+		assertEquals(3, drafts.size());
+		assertEquals(3, executor.getDraftsIssued());
+		assertEquals(30, executor.getBillsPaid());
+		Draft draft = (Draft) drafts.get(0);
+		assertEquals(new BigDecimal("100.00"), draft.getAmount());
+		assertEquals(10, draft.getBillIds().size());
+		assertEquals(new BigDecimal("10.00"), BillDb.getBill(new Integer(9205)).getPaidAmount());
+		assertEquals("PAID", EntityCache.getInstance().getBill(new Integer(9205)).getStatus());
+	}
+
+	public void testFullBatchClosesWindow() throws Exception {
+		BillDb.addCustomer(new CustomerDataBean(new Integer(95), "Batch", "Test"));
+		for (int i = 0; i < 4; i++) {
+			BillDb.update(new BillDataBean(new Integer(9500 + i), new Integer(95), "PAY", new BigDecimal("5.00"), null, null));
+		}
+		PaymentExecutor executor = new PaymentExecutor(60000, 4, null);
+		Future last = null;
+		for (int i = 0; i < 4; i++) {
+			last = executor.pay(EntityCache.getInstance().getBill(new Integer(9500 + i)));
+		}
+		assertEquals(new BigDecimal("5.00"), last.get(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		assertEquals(0, executor.getDraftsIssued());
+		assertEquals(4, executor.getBillsPaid());
+	}
+
+	public void testRefusedDraftLeavesBillsUnpaid() throws Exception {
+		for (int c = 0; c < 2; c++) {
+			Integer custId = new Integer(96 + c);
+			BillDb.addCustomer(new CustomerDataBean(custId, "Refused", "Test"));
+			for (int i = 0; i < 3; i++) {
+				BillDb.update(new BillDataBean(new Integer(9600 + c * 100 + i), custId, "PAY", new BigDecimal("7.00"), null, null));
+			}
+		}
+		final RuntimeException refused = new IllegalStateException("rail down");
+		PaymentExecutor executor = new PaymentExecutor(200, 100, new PaymentRail() {
+			public void issue(Draft draft) {
+				if (draft.getCustId().intValue() == 96) {
+					throw refused;
+				}
+			}
+		});
+		ArrayList futures = new ArrayList();
+		for (int c = 0; c < 2; c++) {
+			for (int i = 0; i < 3; i++) {
+				futures.add(executor.pay(EntityCache.getInstance().getBill(new Integer(9600 + c * 100 + i))));
+			}
+		}
+		for (int i = 0; i < 3; i++) {
+			try {
+				((Future) futures.get(i)).get(5, TimeUnit.SECONDS);
+				fail("A refused draft should fail its payments");
+			} catch (ExecutionException e) {
+				assertSame(refused, e.getCause());
+			}
+			assertEquals(new BigDecimal("7.00"), ((Future) futures.get(3 + i)).get(5, TimeUnit.SECONDS));
+		}
+		executor.shutdown();
+
+		assertEquals(1, executor.getDraftsIssued());
+		assertEquals(3, executor.getBillsPaid());
+		assertNull(BillDb.getBill(new Integer(9600)).getPaidAmount());
+		assertEquals("NEW", EntityCache.getInstance().getBill(new Integer(9602)).getStatus());
+		assertEquals("PAID", BillDb.getBill(new Integer(9701)).getStatus());
+	}
+}